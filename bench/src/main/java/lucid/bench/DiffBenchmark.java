@@ -0,0 +1,50 @@
+package lucid.bench;
+
+import lucid.grid.RoomDiff;
+import lucid.grid.TileGrid;
+import lucid.grid.TileType;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Diff and three-way merge of a maze edited on both sides: ours fills a block in the west half, theirs one in the
+ * east half, so the merge is clean and both passes see a real change in most rows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class DiffBenchmark {
+
+    @Param({"256", "1024", "4096"})
+    public int size;
+
+    private TileGrid mBase, mOurs, mTheirs;
+
+    @Setup
+    public void setUp() {
+        mBase = RoomFixtures.create(size, RoomFixtures.Distribution.MAZE);
+
+        mOurs = mBase.snapshot();
+        mOurs.setActiveTileType(TileType.Lava);
+        mOurs.fillRect(new Rectangle(size / 8, size / 4, size / 4, size / 2));
+
+        mTheirs = mBase.snapshot();
+        mTheirs.setActiveTileType(TileType.Floor);
+        mTheirs.fillRect(new Rectangle(size * 5 / 8, size / 4, size / 4, size / 2));
+    }
+
+    @Benchmark
+    public RoomDiff compare() {
+        return RoomDiff.compare(mBase, mOurs);
+    }
+
+    @Benchmark
+    public RoomDiff.Merge merge() {
+        return RoomDiff.merge(mBase, mOurs, mTheirs);
+    }
+}
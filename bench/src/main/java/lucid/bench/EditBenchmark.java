@@ -0,0 +1,48 @@
+package lucid.bench;
+
+import lucid.grid.TileGrid;
+import lucid.grid.TileType;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk edits over the whole interior of the room, alternating between two types so every call changes every tile.
+ * Includes the validity check the editor runs after each edit.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class EditBenchmark {
+
+    @Param({"256", "1024", "4096"})
+    public int size;
+
+    private TileGrid mGrid;
+    private Rectangle mInterior;
+    private boolean mToggle;
+
+    @Setup
+    public void setUp() {
+        mGrid = new TileGrid(size, size, TileType.Floor);
+        mInterior = new Rectangle(1, 1, size - 2, size - 2);
+    }
+
+    @Benchmark
+    public int floodFill() {
+        mGrid.setActiveTileType((mToggle = !mToggle) ? TileType.Lava : TileType.Floor);
+        mGrid.floodFill(size / 2, size / 2);
+        return mGrid.getInvalidTileCount();
+    }
+
+    @Benchmark
+    public int fillRect() {
+        mGrid.setActiveTileType((mToggle = !mToggle) ? TileType.None : TileType.Floor);
+        mGrid.fillRect(mInterior);
+        return mGrid.getInvalidTileCount();
+    }
+}
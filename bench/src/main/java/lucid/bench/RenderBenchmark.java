@@ -0,0 +1,77 @@
+package lucid.bench;
+
+import lucid.GUI.TileGridPanel;
+import lucid.grid.TileGrid;
+import lucid.grid.TileType;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-frame render path: building the raster and painting the panel into an offscreen image the size of the
+ * editor's canvas.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+
+    private static final int CANVAS_WIDTH = 1400;
+    private static final int CANVAS_HEIGHT = 850;
+
+    @Param({"32", "256", "1024", "4096"})
+    public int size;
+
+    @Param({"SPARSE", "DENSE_WALLS", "MAZE"})
+    public RoomFixtures.Distribution distribution;
+
+    @Param({"false", "true"})
+    public boolean showIndices;
+
+    private TileGrid mGrid;
+    private TileGridPanel mPanel;
+    private BufferedImage mImage;
+    private Graphics2D mGraphics;
+    private int[] mPalette;
+    private int[] mRaster;
+
+    @Setup
+    public void setUp() {
+        mGrid = RoomFixtures.create(size, distribution);
+
+        mPanel = new TileGridPanel();
+        mPanel.setSize(CANVAS_WIDTH, CANVAS_HEIGHT);
+
+        // Same view the editor opens a room with
+        mPanel.acceptRenderInfo(mGrid, showIndices);
+        mPanel.fitToView();
+
+        mImage = new BufferedImage(CANVAS_WIDTH, CANVAS_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        mGraphics = mImage.createGraphics();
+
+        mPalette = TileType.createRGBPalette();
+        mRaster = new int[size * size];
+    }
+
+    @TearDown
+    public void tearDown() {
+        mGraphics.dispose();
+    }
+
+    @Benchmark
+    public int[] getTileRGB() {
+        mGrid.getTileRGB(0, 0, size, size, mPalette, mRaster, 0, size);
+        return mRaster;
+    }
+
+    @Benchmark
+    public BufferedImage paintComponent() {
+        mPanel.paint(mGraphics);
+        return mImage;
+    }
+}
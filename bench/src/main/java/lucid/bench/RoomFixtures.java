@@ -0,0 +1,86 @@
+package lucid.bench;
+
+import lucid.grid.TileGrid;
+import lucid.grid.TileType;
+
+import java.util.Random;
+
+/**
+ * Deterministic rooms for the benchmarks. Every room is valid: walled in, with a door on the north border and a
+ * None region in the north-west corner so validation has a region to flood.
+ */
+public final class RoomFixtures {
+
+    public enum Distribution {
+        /** Open floor with about 1% scattered features. */
+        SPARSE,
+        /** Close to half of the interior is wall. */
+        DENSE_WALLS,
+        /** A binary-tree maze with one-tile corridors. */
+        MAZE
+    }
+
+    private static final TileType[] FEATURES = {TileType.Nest, TileType.Treasure, TileType.POI, TileType.Lava, TileType.Wall};
+
+    private RoomFixtures() {}
+
+    public static TileGrid create(int size, Distribution distribution) {
+        TileGrid grid = new TileGrid(size, size, TileType.Floor);
+        Random random = new Random(size * 31L + distribution.ordinal());
+
+        switch (distribution) {
+            case SPARSE:
+                for (int y = 1; y < size - 1; y++) {
+                    for (int x = 1; x < size - 1; x++) {
+                        if (random.nextInt(100) == 0) {
+                            grid.setTileType(x + y * size, FEATURES[random.nextInt(FEATURES.length)]);
+                        }
+                    }
+                }
+                break;
+            case DENSE_WALLS:
+                for (int y = 1; y < size - 1; y++) {
+                    for (int x = 1; x < size - 1; x++) {
+                        if (random.nextInt(100) < 45) {
+                            grid.setTileType(x + y * size, TileType.Wall);
+                        }
+                    }
+                }
+                break;
+            case MAZE:
+                // Walls everywhere except odd cells, then knock through to the north or east of each cell
+                for (int y = 1; y < size - 1; y++) {
+                    for (int x = 1; x < size - 1; x++) {
+                        if (x % 2 == 0 || y % 2 == 0) {
+                            grid.setTileType(x + y * size, TileType.Wall);
+                        }
+                    }
+                }
+                for (int y = 1; y < size - 1; y += 2) {
+                    for (int x = 1; x < size - 1; x += 2) {
+                        boolean canGoNorth = y > 1;
+                        boolean canGoEast = x < size - 3;
+                        if (canGoNorth && (!canGoEast || random.nextBoolean())) {
+                            grid.setTileType(x + (y - 1) * size, TileType.Floor);
+                        } else if (canGoEast) {
+                            grid.setTileType(x + 1 + y * size, TileType.Floor);
+                        }
+                    }
+                }
+                break;
+        }
+
+        // A walled-in None corner reaching the border
+        int corner = Math.max(size / 8, 2);
+        for (int y = 0; y <= corner; y++) {
+            for (int x = 0; x <= corner; x++) {
+                boolean edge = x == corner || y == corner;
+                grid.setTileType(x + y * size, edge ? TileType.Wall : TileType.None);
+            }
+        }
+
+        grid.setTileType(size / 2, TileType.Door);
+
+        return grid;
+    }
+}
@@ -0,0 +1,62 @@
+package lucid.bench;
+
+import lucid.grid.TileGrid;
+import lucid.grid.TileType;
+import lucid.serialization.SerializationFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Save and load through the public entry points, which is what the editor and the batch tool call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"32", "256", "1024", "4096"})
+    public int size;
+
+    @Param({"SPARSE", "DENSE_WALLS", "MAZE"})
+    public RoomFixtures.Distribution distribution;
+
+    @Param({"JSON", "BINARY", "JSON_COMPACT"})
+    public SerializationFormat format;
+
+    private TileGrid mGrid;
+    private File mSaveFile;
+    private File mLoadFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        mGrid = RoomFixtures.create(size, distribution);
+
+        mSaveFile = Files.createTempFile("lucid-bench-save", "." + format.getExtension()).toFile();
+        mLoadFile = Files.createTempFile("lucid-bench-load", "." + format.getExtension()).toFile();
+        mGrid.serialize(mLoadFile, format);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mSaveFile.delete();
+        mLoadFile.delete();
+    }
+
+    @Benchmark
+    public File serialize() {
+        mGrid.serialize(mSaveFile, format);
+        return mSaveFile;
+    }
+
+    @Benchmark
+    public TileGrid deserialize() {
+        return new TileGrid(mLoadFile, format, TileType.Floor);
+    }
+}
@@ -0,0 +1,34 @@
+package lucid.bench;
+
+import lucid.grid.TileGrid;
+import lucid.serialization.RoomTemplate;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+
+    @Param({"32", "256", "1024", "4096"})
+    public int size;
+
+    @Param({"SPARSE", "DENSE_WALLS", "MAZE"})
+    public RoomFixtures.Distribution distribution;
+
+    private TileGrid mGrid;
+
+    @Setup
+    public void setUp() {
+        mGrid = RoomFixtures.create(size, distribution);
+    }
+
+    @Benchmark
+    public RoomTemplate createRoomTemplate() {
+        return mGrid.CreateRoomTemplate();
+    }
+}
@@ -0,0 +1,43 @@
+package lucid.grid;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One call per tile of the grid. Neighbors don't depend on tile types, so there's no distribution parameter.
+ * Lives in lucid.grid to reach the package-private neighbor helpers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class NeighborBenchmark {
+
+    @Param({"32", "256", "1024", "4096"})
+    public int size;
+
+    private TileGrid mGrid;
+
+    @Setup
+    public void setUp() {
+        mGrid = new TileGrid(size, size, TileType.Floor);
+    }
+
+    @Benchmark
+    public void getNeighbors(Blackhole blackhole) {
+        for (int index = 0; index < size * size; index++) {
+            blackhole.consume(mGrid.getNeighbors(index));
+        }
+    }
+
+    @Benchmark
+    public void getNeighborsWithDiagonals(Blackhole blackhole) {
+        for (int index = 0; index < size * size; index++) {
+            blackhole.consume(mGrid.getNeighborsWithDiagonals(index));
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package lucid.grid;
+
+import lucid.bench.RoomFixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lives in lucid.grid to reach the package-private analyzer directly.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class ReachabilityBenchmark {
+
+    @Param({"256", "1024", "4096"})
+    public int size;
+
+    @Param({"SPARSE", "DENSE_WALLS", "MAZE"})
+    public RoomFixtures.Distribution distribution;
+
+    private TileGrid mGrid;
+    private int mEditIndex;
+    private boolean mEditToggle;
+
+    @Setup
+    public void setUp() {
+        mGrid = RoomFixtures.create(size, distribution);
+
+        // A maze cell in the middle of the room; walling it off cuts off whatever was only reached through it
+        int middle = size / 2 | 1;
+        mEditIndex = middle + middle * size;
+    }
+
+    /**
+     * What the first query costs, e.g. right after a load.
+     */
+    @Benchmark
+    public int fullSearch() {
+        return new ReachabilityAnalyzer(mGrid).getDistance(mEditIndex);
+    }
+
+    /**
+     * One edit in the middle of the room, then the queries the status bar makes.
+     */
+    @Benchmark
+    public int editThenQuery() {
+        mEditToggle = !mEditToggle;
+        mGrid.setTileType(mEditIndex, mEditToggle ? TileType.Wall : TileType.Floor);
+        return mGrid.getUnreachableTiles().length + mGrid.getDisconnectedDoors().length;
+    }
+}
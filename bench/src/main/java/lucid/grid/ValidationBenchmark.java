@@ -0,0 +1,55 @@
+package lucid.grid;
+
+import lucid.bench.RoomFixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lives in lucid.grid to reach the package-private validator directly.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class ValidationBenchmark {
+
+    @Param({"32", "256", "1024", "4096"})
+    public int size;
+
+    @Param({"SPARSE", "DENSE_WALLS", "MAZE"})
+    public RoomFixtures.Distribution distribution;
+
+    private TileGrid mGrid;
+    private int mEditIndex;
+    private boolean mEditToggle;
+
+    @Setup
+    public void setUp() {
+        mGrid = RoomFixtures.create(size, distribution);
+
+        // The tile just inside the walled None corner
+        int corner = Math.max(size / 8, 2);
+        mEditIndex = corner + corner * size;
+    }
+
+    /**
+     * What throwIfBoardIsInvalid() costs when nothing is cached, e.g. right after a load.
+     */
+    @Benchmark
+    public int[] fullValidation() {
+        return new BoardValidator(mGrid).findInvalidBorderTiles();
+    }
+
+    /**
+     * One edit next to the None region, then the re-check that save or the status bar would trigger.
+     */
+    @Benchmark
+    public int[] editThenValidate() {
+        mEditToggle = !mEditToggle;
+        mGrid.setTileType(mEditIndex, mEditToggle ? TileType.Floor : TileType.Wall);
+        return mGrid.getInvalidTiles();
+    }
+}
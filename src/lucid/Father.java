@@ -1,16 +1,39 @@
 package lucid;
 
 import lucid.GUI.LevelDesigner;
+import lucid.batch.MergeBatch;
+import lucid.batch.RoomBatch;
+import lucid.batch.ThumbnailBatch;
 
 import javax.swing.*;
+import java.util.Arrays;
 
 /**
- * Starter class with main()
+ * Starter class with main(). With no arguments the editor is opened; otherwise the first argument names a headless
+ * command.
  */
 public class Father {
 
     public static void main(String[] args)
     {
+        if (args.length > 0) {
+            String[] commandArgs = Arrays.copyOfRange(args, 1, args.length);
+
+            if (args[0].equals(RoomBatch.COMMAND)) {
+                System.exit(RoomBatch.run(commandArgs));
+            }
+            if (args[0].equals(ThumbnailBatch.COMMAND)) {
+                System.exit(ThumbnailBatch.run(commandArgs));
+            }
+            if (args[0].equals(MergeBatch.COMMAND)) {
+                System.exit(MergeBatch.run(commandArgs));
+            }
+
+            System.err.println("Unknown command " + args[0] + ". Available: " + RoomBatch.COMMAND + ", "
+                    + ThumbnailBatch.COMMAND + ", " + MergeBatch.COMMAND);
+            System.exit(RoomBatch.EXIT_USAGE);
+        }
+
         // Create a new form
         SwingUtilities.invokeLater(new Runnable() {
             @Override
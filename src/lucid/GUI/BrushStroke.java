@@ -0,0 +1,60 @@
+package lucid.GUI;
+
+import lucid.grid.TileGrid;
+
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * Tile positions picked up by the mouse during a drag. Mouse events only append to it; the points are joined with
+ * lines and written to the grid in one batch per frame, however fast the events come in.
+ */
+public class BrushStroke {
+
+    private int[] mXs = new int[64], mYs = new int[64];
+    private int mCount;
+
+    // The last point already written to the grid, where the next batch continues from
+    private boolean mStarted;
+    private int mLastX, mLastY;
+
+    public void begin(Point tile) {
+        mCount = 0;
+        mStarted = false;
+        add(tile);
+    }
+
+    public void add(Point tile) {
+        // Most events at high polling rates land on the tile we already have
+        if (mCount > 0 && mXs[mCount - 1] == tile.x && mYs[mCount - 1] == tile.y) return;
+        if (mCount == 0 && mStarted && mLastX == tile.x && mLastY == tile.y) return;
+
+        if (mCount == mXs.length) {
+            mXs = Arrays.copyOf(mXs, mCount * 2);
+            mYs = Arrays.copyOf(mYs, mCount * 2);
+        }
+
+        mXs[mCount] = tile.x;
+        mYs[mCount] = tile.y;
+        mCount++;
+    }
+
+    public boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    /**
+     * Paints everything added since the last call, connected to what was painted before.
+     */
+    public void applyTo(TileGrid grid) {
+        for (int i = 0; i < mCount; i++) {
+            int fromX = mStarted ? mLastX : mXs[i], fromY = mStarted ? mLastY : mYs[i];
+            grid.paintLine(fromX, fromY, mXs[i], mYs[i]);
+
+            mLastX = mXs[i]; mLastY = mYs[i];
+            mStarted = true;
+        }
+
+        mCount = 0;
+    }
+}
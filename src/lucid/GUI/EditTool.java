@@ -0,0 +1,11 @@
+package lucid.GUI;
+
+/**
+ * What a left click or drag on the canvas does with the selected tile type.
+ */
+public enum EditTool {
+    Brush,
+    Line,
+    Rectangle,
+    Fill
+}
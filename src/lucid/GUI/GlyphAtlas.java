@@ -0,0 +1,83 @@
+package lucid.GUI;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * The digits 0-9 of one font, pre-rendered once in black and in white, so numbers can be drawn by copying glyphs
+ * instead of laying out a fresh string every time.
+ */
+public class GlyphAtlas {
+
+    private final Font mFont;
+
+    private final BufferedImage mImage;
+
+    // Left edge and advance of each digit within a row of the atlas
+    private final int[] mOffsets = new int[10];
+    private final int[] mAdvances = new int[10];
+
+    private final int mAscent, mHeight;
+
+    public GlyphAtlas(Component component, Font font) {
+        mFont = font;
+
+        FontMetrics metrics = component.getFontMetrics(font);
+        mAscent = metrics.getAscent();
+        mHeight = metrics.getHeight();
+
+        int width = 0;
+        for (int digit = 0; digit < 10; digit++) {
+            mOffsets[digit] = width;
+            mAdvances[digit] = metrics.charWidth((char) ('0' + digit));
+            width += mAdvances[digit];
+        }
+
+        // Row 0 is black, row 1 is white
+        mImage = new BufferedImage(Math.max(width, 1), mHeight * 2, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = mImage.createGraphics();
+        g.setFont(font);
+
+        for (int row = 0; row < 2; row++) {
+            g.setColor(row == 0 ? Color.black : Color.white);
+            for (int digit = 0; digit < 10; digit++) {
+                g.drawString(String.valueOf(digit), mOffsets[digit], row * mHeight + mAscent);
+            }
+        }
+
+        g.dispose();
+    }
+
+    public Font getFont() {
+        return mFont;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getAscent() {
+        return mAscent;
+    }
+
+    /**
+     * Draws a non-negative number with its baseline at (x, y), the same place drawString would put it.
+     */
+    public void drawNumber(Graphics g, int value, int x, int y, boolean white) {
+        int top = y - mAscent;
+        int row = white ? mHeight : 0;
+
+        // Walk the digits from the most significant one without building a string
+        int divisor = 1;
+        while (value / divisor >= 10) divisor *= 10;
+
+        for (; divisor > 0; divisor /= 10) {
+            int digit = (value / divisor) % 10;
+            int advance = mAdvances[digit];
+            int sx = mOffsets[digit];
+
+            g.drawImage(mImage, x, top, x + advance, top + mHeight, sx, row, sx + advance, row + mHeight, null);
+            x += advance;
+        }
+    }
+}
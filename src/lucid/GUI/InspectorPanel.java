@@ -1,47 +1,63 @@
 package lucid.GUI;
 
+import lucid.grid.Tile;
+import lucid.grid.TileEditor;
+import lucid.grid.TileType;
+
 import javax.swing.*;
-import java.awt.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.EnumMap;
+import java.util.Map;
 
+/**
+ * Shows the type, index and metadata of the last inspected tile. There is one editor per tile type, built the first
+ * time a tile of that type is inspected and reused after that; only switching to another type changes the layout.
+ */
 public class InspectorPanel extends JPanel {
 
-    private String mHeader;
+    private final JLabel mHeaderLabel = new JLabel() {
+        // Sized once for the longest header, so new text only needs a repaint, not a relayout
+        @Override
+        public void revalidate() {
+            if (!isPreferredSizeSet()) super.revalidate();
+        }
+    };
+
+    private final Map<TileType, TileEditor> mEditors = new EnumMap<>(TileType.class);
+    private TileEditor mEditor;
 
     public InspectorPanel() {
         setLayout(new BoxLayout(this, BoxLayout.PAGE_AXIS));
-    }
-
-    public void acceptInspectorData(String header, List<JLabel> labels, List<JComponent> components) {
-        mHeader = header;
-
-        if (labels.size() != components.size()) {
-            throw new IllegalArgumentException("Labels and Components sizes don't match!");
-        }
 
-        this.removeAll();
+        mHeaderLabel.setText(getHeader(TileType.Treasure, Integer.MAX_VALUE));
+        mHeaderLabel.setPreferredSize(mHeaderLabel.getPreferredSize());
+        mHeaderLabel.setText("");
 
-        JLabel headerLabel = new JLabel(header);
         JPanel headerPanel = new JPanel();
-        headerPanel.add(headerLabel);
+        headerPanel.add(mHeaderLabel);
         add(headerPanel);
 
-        for (int i = 0; i < components.size(); i++) {
-            JComponent componentLeft = labels.get(i);
-            JComponent componentRight = components.get(i);
+        add(Box.createVerticalGlue());
+    }
 
-            JPanel panel = new JPanel();
-            panel.add(componentLeft);
-            panel.add(componentRight);
+    public void inspect(Tile tile) {
+        TileType type = tile.getTileType();
+        mHeaderLabel.setText(getHeader(type, tile.getIndex()));
 
-            add(panel);
-        }
+        TileEditor editor = mEditors.computeIfAbsent(type, TileEditor::forType);
+        editor.bind(tile);
 
-        add(Box.createVerticalGlue());
+        if (editor == mEditor) return;
 
-        invalidate();
-        validate();
+        // Between the header and the glue
+        if (mEditor != null) remove(mEditor.getComponent());
+        add(editor.getComponent(), 1);
+        mEditor = editor;
+
+        revalidate();
         repaint();
     }
+
+    private static String getHeader(TileType type, int index) {
+        return "TYPE: " + type + "     INDEX: " + index;
+    }
 }
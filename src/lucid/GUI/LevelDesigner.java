@@ -1,8 +1,12 @@
 package lucid.GUI;
 
+import lucid.batch.RoomThumbnails;
+import lucid.grid.AutosaveJournal;
+import lucid.grid.RoomDiff;
 import lucid.grid.Tile;
 import lucid.grid.TileGrid;
 import lucid.grid.TileType;
+import lucid.serialization.IOProgress;
 import lucid.serialization.SerializationFormat;
 
 import javax.swing.*;
@@ -11,6 +15,11 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 public class LevelDesigner {
     private JPanel mMainPanel;
@@ -41,8 +50,67 @@ public class LevelDesigner {
 
     private final JFrame mFrame;
 
+    private final JLabel mLabelStatus = new JLabel();
+
     private TileGrid mTileGrid;
 
+    /**
+     * How often a drag in progress is written to the grid and repainted, about 60 times a second.
+     */
+    private static final int STROKE_FRAME_MILLIS = 16;
+
+    private final BrushStroke mStroke = new BrushStroke();
+    private final Timer mStrokeTimer = new Timer(STROKE_FRAME_MILLIS, e -> flushStroke());
+
+    private final JComboBox<EditTool> mComboBoxTool = new JComboBox<>(EditTool.values());
+    private final JButton mButtonUndo = new JButton("Undo");
+    private final JButton mButtonRedo = new JButton("Redo");
+
+    // Tile where a line or rectangle drag began, or null
+    private Point mEditStart;
+
+    private final JProgressBar mProgressBar = new JProgressBar(0, 100);
+    private final JButton mButtonCancel = new JButton("Cancel");
+
+    // The load or save running in the background, or null; only one at a time
+    private RoomIOWorker<?> mIOWorker;
+
+    /**
+     * How often recorded changes are handed to the autosave journal, and background write failures are reported.
+     */
+    private static final int AUTOSAVE_MILLIS = 1000;
+
+    private final AutosaveJournal mAutosave = new AutosaveJournal(Paths.get(PATH, "autosave"));
+    private final Timer mAutosaveTimer = new Timer(AUTOSAVE_MILLIS, e -> {
+        flushAutosave();
+        checkSpills();
+    });
+
+    /**
+     * How often a switch waiting on a room to be read back checks whether it was cancelled.
+     */
+    private static final int ROOM_WAIT_MILLIS = 100;
+
+    private final RoomWorkspace mRooms = new RoomWorkspace();
+    private final JComboBox<RoomWorkspace.Room> mComboBoxRooms = new JComboBox<>(mRooms.getModel());
+    private final JButton mButtonCloseRoom = new JButton("Close");
+
+    // Room the current one is diffed against while the Diff button is down, and the content hash last diffed
+    private final JToggleButton mButtonDiff = new JToggleButton("Diff");
+    private TileGrid mDiffAgainst;
+    private String mDiffName;
+    private long mDiffHash;
+
+    // Shades the room by distance from the doors while down
+    private final JToggleButton mButtonReach = new JToggleButton("Reach");
+
+    // Set while the room box is changed from code, so the change isn't taken for the user picking a room
+    private boolean mUpdatingRooms;
+
+    // Previews for the load dialog; two threads, so they don't get in the way of editing
+    private final RoomThumbnails mThumbnails =
+            new RoomThumbnails(Paths.get(PATH, "thumbnails"), RoomThumbnails.DEFAULT_SIZE, 2);
+
     public static final String PATH = getPath();
 
     private static String getPath() {
@@ -61,40 +129,222 @@ public class LevelDesigner {
         addButtonActionListeners();
         addRadioButtonsToButtonGroup();
 
+        mComboBoxTool.setToolTipText("Editing tool");
+        mComboBoxTool.setMaximumSize(mComboBoxTool.getPreferredSize());
+        mToolBar.addSeparator();
+        mToolBar.add(mComboBoxTool);
+        mToolBar.add(mButtonUndo);
+        mToolBar.add(mButtonRedo);
+        addUndoShortcuts();
+
+        mComboBoxRooms.setToolTipText("Open rooms");
+        mComboBoxRooms.setPreferredSize(new Dimension(160, mComboBoxRooms.getPreferredSize().height));
+        mComboBoxRooms.setMaximumSize(mComboBoxRooms.getPreferredSize());
+        mComboBoxRooms.addActionListener(e -> {
+            if (!mUpdatingRooms) switchRoom((RoomWorkspace.Room) mComboBoxRooms.getSelectedItem(), null);
+        });
+        mButtonCloseRoom.setEnabled(false);
+        mButtonCloseRoom.addActionListener(e -> closeRoom());
+        mToolBar.addSeparator();
+        mToolBar.add(mComboBoxRooms);
+        mToolBar.add(mButtonCloseRoom);
+        mButtonDiff.setToolTipText("Highlight the tiles that differ from a room on disk");
+        mButtonDiff.addActionListener(e -> {
+            if (mButtonDiff.isSelected()) compareWithFile();
+            else clearDiff();
+        });
+        mToolBar.add(mButtonDiff);
+        mButtonReach.setToolTipText("Shade tiles by distance from the nearest door and mark what can't be reached");
+        mButtonReach.addActionListener(e -> {
+            mCanvas.setDistanceOverlay(mButtonReach.isSelected() ? mTileGrid : null);
+            if (mTileGrid != null) updateStatus();
+        });
+        mToolBar.add(mButtonReach);
+
         mToolBar.add(Box.createHorizontalGlue());
+        mProgressBar.setMaximumSize(new Dimension(120, mProgressBar.getPreferredSize().height));
+        mProgressBar.setVisible(false);
+        mButtonCancel.setVisible(false);
+        mButtonCancel.addActionListener(e -> { if (mIOWorker != null) mIOWorker.requestCancel(); });
+        mToolBar.add(mProgressBar);
+        mToolBar.add(mButtonCancel);
+        mToolBar.add(mLabelStatus);
+
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                super.mousePressed(e);
+                if (e.getButton() == MouseEvent.BUTTON1) beginEdit(e);
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                super.mouseDragged(e);
+                if (mStrokeTimer.isRunning()) mStroke.add(getTileCoordinates(e));
+            }
 
-        mCanvas.addMouseListener(new MouseAdapter() {
             @Override
             public void mouseReleased(MouseEvent e) {
                 super.mouseReleased(e);
                 handleMouse(e);
             }
-        });
+        };
+        mCanvas.addMouseListener(mouse);
+        mCanvas.addMouseMotionListener(mouse);
         mCheckBoxShowIndices.addItemListener(e -> drawGrid());
 
         mTextAreaConsole.setEditable(false);
         mButtonClearConsole.addActionListener(e -> mTextAreaConsole.setText(""));
 
         mTextAreaConsole.append("Hi! Errors are reported to this console." + System.lineSeparator());
-        mTextAreaConsole.append("Right-click on a tile to edit its fields." + System.lineSeparator());
+        mTextAreaConsole.append("Click or drag to edit with the selected tool, right-click on a tile to edit its fields." + System.lineSeparator());
+        mTextAreaConsole.append("Scroll to zoom, drag with the middle button to pan." + System.lineSeparator());
+
+        mFrame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                mAutosave.close();
+                mRooms.close();
+                mThumbnails.close();
+            }
+        });
+        mAutosaveTimer.start();
+        recoverAutosave();
     }
 
     private void handleMouse(MouseEvent e) {
+        // An edit ends wherever the button is let go, even off the canvas
+        if (e.getButton() == MouseEvent.BUTTON1) {
+            endEdit(e);
+            return;
+        }
+
         // Make sure that the canvas was clicked
         if (e.getY() >= mCanvas.getHeight() || e.getX() >= mCanvas.getWidth()) return;
 
-        // Determine what to do based on click
-        if (e.getButton() == MouseEvent.BUTTON1) {
-            mTileGrid.handleMouseClick(e.getPoint(), calculateScale(), mCanvas.getTopLeftOfTileGrid());
-        }
-        else if (e.getButton() == MouseEvent.BUTTON3) {
+        if (mTileGrid == null) return;
+
+        if (e.getButton() == MouseEvent.BUTTON3) {
             populateInspector(e.getPoint());
         }
-        drawGrid();
+    }
+
+    // vvv editing tools vvv
+
+    private void beginEdit(MouseEvent e) {
+        if (mTileGrid == null) return;
+
+        switch ((EditTool) mComboBoxTool.getSelectedItem()) {
+            case Brush:
+                beginStroke(e);
+                break;
+            case Line:
+            case Rectangle:
+                // Drawn from corner to corner when the button is released
+                mEditStart = getTileCoordinates(e);
+                break;
+            case Fill:
+                Point tile = getTileCoordinates(e);
+                mTileGrid.floodFill(tile.x, tile.y);
+                drawDirtyTiles();
+                break;
+        }
+    }
+
+    private void endEdit(MouseEvent e) {
+        if (mStrokeTimer.isRunning()) {
+            endStroke(e);
+            return;
+        }
+
+        if (mTileGrid == null || mEditStart == null) return;
+
+        Point start = mEditStart, end = getTileCoordinates(e);
+        mEditStart = null;
+
+        if (mComboBoxTool.getSelectedItem() == EditTool.Line) {
+            mTileGrid.paintLine(start.x, start.y, end.x, end.y);
+        } else {
+            mTileGrid.fillRect(new Rectangle(Math.min(start.x, end.x), Math.min(start.y, end.y),
+                    Math.abs(end.x - start.x) + 1, Math.abs(end.y - start.y) + 1));
+        }
+
+        drawDirtyTiles();
+    }
+
+    private void beginStroke(MouseEvent e) {
+        if (mTileGrid == null) return;
+
+        // The whole stroke is one undo step
+        mTileGrid.beginEdit();
+        mStroke.begin(getTileCoordinates(e));
+        flushStroke();
+        mStrokeTimer.start();
+    }
+
+    private void endStroke(MouseEvent e) {
+        mStrokeTimer.stop();
+        mStroke.add(getTileCoordinates(e));
+        flushStroke();
+        mTileGrid.endEdit();
+
+        // The last frame may not have changed anything, and the diff waits for the stroke to end
+        if (mDiffAgainst != null) updateStatus();
+    }
+
+    private void undo() {
+        // Not while a stroke is still being recorded
+        if (mTileGrid == null || mStrokeTimer.isRunning()) return;
+
+        if (mTileGrid.undo()) drawDirtyTiles();
+    }
+
+    private void redo() {
+        if (mTileGrid == null || mStrokeTimer.isRunning()) return;
+
+        if (mTileGrid.redo()) drawDirtyTiles();
+    }
+
+    /**
+     * Writes the points gathered since the last frame to the grid and repaints what they changed, once.
+     */
+    private void flushStroke() {
+        if (mTileGrid == null || mStroke.isEmpty()) return;
+
+        mStroke.applyTo(mTileGrid);
+        drawDirtyTiles();
+    }
+
+    private Point getTileCoordinates(MouseEvent e) {
+        return mTileGrid.getTileCoordinates(e.getPoint(), mCanvas.getScale(), mCanvas.getTopLeftOfTileGrid());
+    }
+
+    private void addUndoShortcuts() {
+        int menuKey = Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx();
+
+        InputMap inputs = mMainPanel.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW);
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, menuKey), "undo");
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_Y, menuKey), "redo");
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, menuKey | InputEvent.SHIFT_DOWN_MASK), "redo");
+
+        mMainPanel.getActionMap().put("undo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                undo();
+            }
+        });
+        mMainPanel.getActionMap().put("redo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                redo();
+            }
+        });
     }
 
     private void addButtonActionListeners() {
         mToolbarButtonNew.addActionListener(e -> createNewGrid());
+        mButtonUndo.addActionListener(e -> undo());
+        mButtonRedo.addActionListener(e -> redo());
         mToolbarButtonLoad.addActionListener(e -> loadGrid());
         mToolbarButtonSave.addActionListener(e -> saveGrid());
         mToolbarButtonClear.addActionListener(e -> clearGrid());
@@ -173,21 +423,305 @@ public class LevelDesigner {
         }
 
         // Create a new tile grid of those dimensions
-        mTileGrid = new TileGrid(width, height, getCheckedTileType());
-        drawGrid();
+        openRoom(new TileGrid(width, height, getCheckedTileType()), null);
     }
 
     private void loadGrid() {
         JFileChooser file = new JFileChooser();
 
-        FileNameExtensionFilter filter = new FileNameExtensionFilter("JSON Files", "json");
+        FileNameExtensionFilter filter = new FileNameExtensionFilter("Room Files", getExtensions());
         file.setFileFilter(filter);
         file.setCurrentDirectory(new File(PATH));
+        file.setMultiSelectionEnabled(true);
 
-        if (file.showOpenDialog(mFrame) == JFileChooser.APPROVE_OPTION) {
-            mTileGrid = new TileGrid(file.getSelectedFile(), SerializationFormat.JSON, getCheckedTileType());
-            drawGrid();
+        ThumbnailPreview preview = new ThumbnailPreview(mThumbnails, RoomThumbnails.DEFAULT_SIZE);
+        file.setAccessory(preview);
+        file.addPropertyChangeListener(preview);
+
+        if (file.showOpenDialog(mFrame) != JFileChooser.APPROVE_OPTION) return;
+
+        File[] selectedFiles = file.getSelectedFiles();
+        if (selectedFiles.length == 0) return;
+
+        // Rooms already open are switched to, not read again
+        File selectedFile = selectedFiles[0];
+        RoomWorkspace.Room open = mRooms.find(selectedFile);
+        if (open != null) {
+            addLazyRooms(selectedFiles);
+            switchRoom(open, null);
+            return;
+        }
+
+        // The current room stays editable until the first one is fully read; the others are read when first needed
+        TileType tileType = getCheckedTileType();
+        runInBackground("Loading " + selectedFile.getName(),
+                progress -> mRooms.read(selectedFile, tileType, progress),
+                grid -> {
+                    openRoom(grid, selectedFile);
+                    addLazyRooms(selectedFiles);
+                });
+    }
+
+    /**
+     * Opens all but the first of the files as rooms that are read when first switched to, or prefetched.
+     */
+    private void addLazyRooms(File[] files) {
+        mUpdatingRooms = true;
+        try {
+            for (int i = 1; i < files.length; i++) {
+                File lazyFile = files[i];
+                if (mRooms.find(lazyFile) != null) continue;
+
+                mRooms.add(lazyFile, () -> mRooms.read(lazyFile, TileType.None, IOProgress.NONE));
+            }
+        } finally {
+            mUpdatingRooms = false;
+        }
+        updateRoomButtons();
+    }
+
+    /**
+     * Shows another room, which is autosaved from then on.
+     */
+    private void setTileGrid(TileGrid grid) {
+        endStrokeInProgress();
+
+        // The diff was against the old room
+        clearDiff();
+
+        mTileGrid = grid;
+        grid.setActiveTileType(getCheckedTileType());
+        mAutosave.attach(grid);
+        if (mButtonReach.isSelected()) mCanvas.setDistanceOverlay(grid);
+        showNewGrid();
+    }
+
+    private void endStrokeInProgress() {
+        // A drag still going on belongs to the old room
+        if (mStrokeTimer.isRunning()) {
+            mStrokeTimer.stop();
+            flushStroke();
+            mTileGrid.endEdit();
+        }
+        mEditStart = null;
+    }
+
+    // vvv rooms vvv
+
+    /**
+     * Adds a room to the open ones and switches to it. The file is where it was read from, or null for a new room.
+     */
+    private void openRoom(TileGrid grid, File file) {
+        // Opening a room can spill the current one, which must not change while it is written out
+        endStrokeInProgress();
+
+        RoomWorkspace.Room room;
+        mUpdatingRooms = true;
+        try {
+            room = file == null ? mRooms.addUntitled(grid) : mRooms.add(file, grid);
+        } finally {
+            mUpdatingRooms = false;
+        }
+
+        showRoom(room, grid);
+    }
+
+    /**
+     * Switches to an open room: at once if it is in memory, otherwise once it has been read back in the background.
+     * Then runs onSwitched, if given.
+     */
+    private void switchRoom(RoomWorkspace.Room room, Runnable onSwitched) {
+        // The box only shows the new room once it is actually being edited
+        selectCurrentRoom();
+        if (room == null || room == mRooms.getCurrent()) return;
+
+        endStrokeInProgress();
+
+        // In memory if it was used lately or prefetched
+        TileGrid grid = mRooms.getIfResident(room);
+        if (grid != null) {
+            showRoom(room, grid);
+            if (onSwitched != null) onSwitched.run();
+            return;
+        }
+
+        Future<TileGrid> loading = mRooms.load(room);
+        runInBackground("Opening " + room, progress -> {
+            while (true) {
+                try {
+                    return loading.get(ROOM_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // Gives a cancel the chance to stop the wait
+                    progress.update(0, -1);
+                }
+            }
+        }, loaded -> {
+            // Taking the room in can spill the current one, which must not change while it is written out
+            endStrokeInProgress();
+
+            // Null if the room was closed meanwhile
+            TileGrid resident = mRooms.getIfResident(room);
+            if (resident == null) return;
+
+            showRoom(room, resident);
+            if (onSwitched != null) onSwitched.run();
+        });
+    }
+
+    private void showRoom(RoomWorkspace.Room room, TileGrid grid) {
+        mUpdatingRooms = true;
+        try {
+            mRooms.setCurrent(room);
+        } finally {
+            mUpdatingRooms = false;
+        }
+
+        setTileGrid(grid);
+        updateRoomButtons();
+    }
+
+    /**
+     * Closes the current room after switching to the one next to it in the list.
+     */
+    private void closeRoom() {
+        RoomWorkspace.Room room = mRooms.getCurrent();
+        if (room == null || mRooms.getRoomCount() < 2) return;
+
+        ComboBoxModel<RoomWorkspace.Room> model = mRooms.getModel();
+        int index = mComboBoxRooms.getSelectedIndex();
+        RoomWorkspace.Room next = model.getElementAt(index + 1 < model.getSize() ? index + 1 : index - 1);
+
+        switchRoom(next, () -> {
+            mUpdatingRooms = true;
+            try {
+                mRooms.remove(room);
+            } finally {
+                mUpdatingRooms = false;
+            }
+            selectCurrentRoom();
+            updateRoomButtons();
+        });
+    }
+
+    private void selectCurrentRoom() {
+        mUpdatingRooms = true;
+        try {
+            mComboBoxRooms.setSelectedItem(mRooms.getCurrent());
+        } finally {
+            mUpdatingRooms = false;
+        }
+    }
+
+    private void updateRoomButtons() {
+        mButtonCloseRoom.setEnabled(mRooms.getRoomCount() > 1);
+    }
+
+    // vvv diff vvv
+
+    /**
+     * Reads a room from disk in the background and highlights where the current room differs from it.
+     */
+    private void compareWithFile() {
+        if (mTileGrid == null || mIOWorker != null) {
+            mButtonDiff.setSelected(false);
+            return;
+        }
+
+        JFileChooser file = new JFileChooser();
+        file.setFileFilter(new FileNameExtensionFilter("Room Files", getExtensions()));
+        RoomWorkspace.Room room = mRooms.getCurrent();
+        file.setCurrentDirectory(room != null && room.getFile() != null ? room.getFile().getParentFile() : new File(PATH));
+
+        ThumbnailPreview preview = new ThumbnailPreview(mThumbnails, RoomThumbnails.DEFAULT_SIZE);
+        file.setAccessory(preview);
+        file.addPropertyChangeListener(preview);
+
+        if (file.showOpenDialog(mFrame) != JFileChooser.APPROVE_OPTION) {
+            mButtonDiff.setSelected(false);
+            return;
         }
+
+        File selectedFile = file.getSelectedFile();
+        TileGrid current = mTileGrid;
+        runInBackground("Reading " + selectedFile.getName(),
+                progress -> new TileGrid(selectedFile, SerializationFormat.detect(selectedFile), TileType.None, progress),
+                other -> {
+                    // Switched rooms or gave up meanwhile
+                    if (mTileGrid != current || !mButtonDiff.isSelected()) return;
+
+                    if (other.getWidth() != current.getWidth() || other.getHeight() != current.getHeight()) {
+                        mTextAreaConsole.append("Can't diff against " + selectedFile.getName() + ": it is "
+                                + other.getWidth() + "x" + other.getHeight() + System.lineSeparator());
+                        mButtonDiff.setSelected(false);
+                        return;
+                    }
+
+                    mDiffAgainst = other;
+                    mDiffName = selectedFile.getName();
+                    refreshDiff();
+                });
+    }
+
+    /**
+     * Diffs the current room again; a single pass over the tiles, so cheap enough to run after every edit.
+     */
+    private void refreshDiff() {
+        RoomDiff diff = RoomDiff.compare(mDiffAgainst, mTileGrid);
+        mDiffHash = mTileGrid.getContentHash();
+        mCanvas.setDiffOverlay(diff, null);
+
+        mLabelStatus.setText(String.format("%d tile(s) and %d field(s) differ from %s", diff.getChangedTileCount(),
+                diff.getMetadataChangeCount(), mDiffName));
+    }
+
+    private void clearDiff() {
+        mButtonDiff.setSelected(false);
+        if (mDiffAgainst == null) return;
+
+        mDiffAgainst = null;
+        mDiffName = null;
+        mCanvas.setDiffOverlay(null, null);
+        if (mTileGrid != null) updateStatus();
+    }
+
+    // vvv autosave vvv
+
+    private void recoverAutosave() {
+        if (!mAutosave.hasAutosave()) return;
+
+        TileType tileType = getCheckedTileType();
+        runInBackground("Recovering autosave", progress -> mAutosave.recover(tileType, progress), grid -> {
+            // A room created while recovering wins over the autosave
+            if (grid == null || mTileGrid != null) return;
+
+            openRoom(grid, null);
+            mTextAreaConsole.append("Recovered the room from the last session." + System.lineSeparator());
+        });
+    }
+
+    private void flushAutosave() {
+        try {
+            mAutosave.flush();
+        } catch (RuntimeException e) {
+            mTextAreaConsole.append(e.getMessage() + System.lineSeparator());
+        }
+    }
+
+    private void checkSpills() {
+        try {
+            mRooms.checkSpills();
+        } catch (RuntimeException e) {
+            mTextAreaConsole.append(e.getMessage() + System.lineSeparator());
+        }
+    }
+
+    private static String[] getExtensions() {
+        return Arrays.stream(SerializationFormat.values()).map(SerializationFormat::getExtension).distinct()
+                .toArray(String[]::new);
+    }
+
+    private static FileNameExtensionFilter createFileFilter(SerializationFormat format) {
+        return new FileNameExtensionFilter(format + " Files", format.getExtension());
     }
 
     private TileType getCheckedTileType() {
@@ -203,8 +737,12 @@ public class LevelDesigner {
     private void saveGrid() {
         JFileChooser file = new JFileChooser();
 
-        FileNameExtensionFilter filter = new FileNameExtensionFilter("JSON Files", "json");
-        file.setFileFilter(filter);
+        FileNameExtensionFilter[] filters = new FileNameExtensionFilter[SerializationFormat.values().length];
+        for (SerializationFormat format : SerializationFormat.values()) {
+            filters[format.ordinal()] = createFileFilter(format);
+            file.addChoosableFileFilter(filters[format.ordinal()]);
+        }
+        file.setFileFilter(filters[SerializationFormat.JSON.ordinal()]);
         file.setCurrentDirectory(new File(PATH));
 
 
@@ -214,15 +752,89 @@ public class LevelDesigner {
 
         try {
             File selectedFile = file.getSelectedFile();
+
+            // Use the format of the chosen filter, unless the typed name says otherwise
+            SerializationFormat format = SerializationFormat.JSON;
+            for (SerializationFormat candidate : SerializationFormat.values()) {
+                if (file.getFileFilter() == filters[candidate.ordinal()]) format = candidate;
+            }
+
             if (!selectedFile.getName().contains(".")) {
-                selectedFile = new File(selectedFile + ".json");
+                selectedFile = new File(selectedFile + "." + format.getExtension());
+            } else if (!selectedFile.getName().endsWith("." + format.getExtension())) {
+                format = SerializationFormat.fromFileName(selectedFile.getName());
             }
-            mTileGrid.serialize(selectedFile, SerializationFormat.JSON);
+
+            // Write out the room as it is now; edits made while saving go into the next save
+            TileGrid snapshot = mTileGrid.snapshot();
+            RoomWorkspace.Room room = mRooms.getCurrent();
+            File saveFile = selectedFile;
+            SerializationFormat saveFormat = format;
+
+            runInBackground("Saving " + saveFile.getName(), progress -> {
+                if (mRooms.isSaved(saveFile, saveFormat, snapshot.getContentHash())) return false;
+
+                snapshot.serialize(saveFile, saveFormat, progress);
+                mRooms.written(saveFile, saveFormat, snapshot.getContentHash());
+                return true;
+            }, written -> {
+                mRooms.setFile(room, saveFile);
+                mTextAreaConsole.append((written ? "Saved " : "No changes to save in ") + saveFile.getName()
+                        + System.lineSeparator());
+            });
         } catch (RuntimeException e) {
             mTextAreaConsole.append(e.getMessage() + System.lineSeparator());
         }
     }
 
+    /**
+     * Starts a load or save on a background thread, with the progress bar and Cancel button showing while it runs.
+     * Errors go to the console.
+     */
+    private <T> void runInBackground(String description, RoomIOWorker.Job<T> job, Consumer<T> onSuccess) {
+        if (mIOWorker != null) {
+            mTextAreaConsole.append("Wait for the current load or save to finish first." + System.lineSeparator());
+            return;
+        }
+
+        RoomIOWorker<T> worker = new RoomIOWorker<>(job,
+                result -> {
+                    finishBackgroundTask();
+                    onSuccess.accept(result);
+                },
+                message -> {
+                    finishBackgroundTask();
+                    mTextAreaConsole.append(description + ": " + message + System.lineSeparator());
+                });
+
+        // Indeterminate until the job reports a total, which saves never do
+        mProgressBar.setIndeterminate(true);
+        mProgressBar.setValue(0);
+        worker.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                mProgressBar.setIndeterminate(false);
+                mProgressBar.setValue((Integer) e.getNewValue());
+            }
+        });
+
+        mProgressBar.setToolTipText(description);
+        mProgressBar.setVisible(true);
+        mButtonCancel.setVisible(true);
+        mToolbarButtonLoad.setEnabled(false);
+        mToolbarButtonSave.setEnabled(false);
+
+        mIOWorker = worker;
+        worker.execute();
+    }
+
+    private void finishBackgroundTask() {
+        mIOWorker = null;
+        mProgressBar.setVisible(false);
+        mButtonCancel.setVisible(false);
+        mToolbarButtonLoad.setEnabled(true);
+        mToolbarButtonSave.setEnabled(true);
+    }
+
     private void clearGrid() {
         if (mTileGrid != null) {
             mTileGrid.clear();
@@ -233,31 +845,61 @@ public class LevelDesigner {
     private void drawGrid() {
         if (mTileGrid == null) return;
 
-        int scale = calculateScale();
-        drawGrid(scale);
+        // Everything gets redrawn, so pending changes are covered
+        mTileGrid.takeDirtyRegion();
+
+        mCanvas.acceptRenderInfo(mTileGrid, mCheckBoxShowIndices.isSelected());
+        updateStatus();
     }
 
-    private void drawGrid(int scale) {
-        mCanvas.acceptRenderInfo(mTileGrid.getTileColors(), mTileGrid.getWidth(), mTileGrid.getHeight(),
-                scale, mCheckBoxShowIndices.isSelected());
+    /**
+     * Draws a room that was just created or loaded, zoomed to fit the canvas.
+     */
+    private void showNewGrid() {
+        drawGrid();
+        mCanvas.fitToView();
+    }
+
+    /**
+     * Redraws only the tiles changed since the last draw. Full redraws are for loads, resizes and clears.
+     */
+    private void drawDirtyTiles() {
+        Rectangle dirty = mTileGrid.takeDirtyRegion();
+        if (dirty == null) return;
+
+        mCanvas.updateTiles(mTileGrid, dirty);
+        updateStatus();
+    }
+
+    private void updateStatus() {
+        // The diff is redone once an edit is over, not on every frame of a drag
+        if (mDiffAgainst != null) {
+            if (!mStrokeTimer.isRunning() && mTileGrid.getContentHash() != mDiffHash) refreshDiff();
+            return;
+        }
+
+        // Also cheap: only the distances an edit could have changed are worked out again
+        if (mButtonReach.isSelected()) {
+            // An edit can move distances outside the tiles it redrew
+            mCanvas.repaint();
+            mLabelStatus.setText(String.format("%d unreachable tile(s), %d disconnected door(s)",
+                    mTileGrid.getUnreachableTiles().length, mTileGrid.getDisconnectedDoors().length));
+            return;
+        }
+
+        // Cheap: the grid only re-checks what changed since the last call
+        int invalidTiles = mTileGrid.getInvalidTileCount();
+        mLabelStatus.setText(invalidTiles == 0 ? "Room is valid"
+                : String.format("Room is invalid at %d tile(s)", invalidTiles));
     }
 
 
     private void populateInspector(Point point) {
         // Get the clicked tile
-        Tile tile = mTileGrid.getTileAt(point, calculateScale(), mCanvas.getTopLeftOfTileGrid());
+        Tile tile = mTileGrid.getTileAt(point, mCanvas.getScale(), mCanvas.getTopLeftOfTileGrid());
         if (tile == null) return;
 
         // Instruct the tile to paint itself on the inspector panel
         tile.renderOnInspector(mPanelInspector);
     }
-
-
-    private int calculateScale() {
-        // Leave one tile of padding in each dimension
-        int scaleX = mCanvas.getWidth() / (mTileGrid.getWidth() + 1);
-        int scaleY = mCanvas.getHeight() / (mTileGrid.getHeight() + 1);
-
-        return Math.min(scaleX, scaleY);
-    }
 }
@@ -0,0 +1,71 @@
+package lucid.GUI;
+
+import lucid.serialization.IOProgress;
+
+import javax.swing.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Runs a room load or save on a background thread. Progress goes to the worker's "progress" property (0-100) once the
+ * job knows its total. The callbacks run on the EDT.
+ * <p>
+ * Use {@link #requestCancel()} rather than cancel(): the job stops at its next progress update and cleans up after
+ * itself, and the worker only reports done once it has.
+ */
+public class RoomIOWorker<T> extends SwingWorker<T, Void> {
+
+    /**
+     * The work itself, run off the EDT. It must not touch anything the EDT is using.
+     */
+    @FunctionalInterface
+    public interface Job<T> {
+        T run(IOProgress progress) throws Exception;
+    }
+
+    private final Job<T> mJob;
+    private final Consumer<T> mOnSuccess;
+    private final Consumer<String> mOnFailure;
+
+    private volatile boolean mCancelRequested;
+
+    public RoomIOWorker(Job<T> job, Consumer<T> onSuccess, Consumer<String> onFailure) {
+        mJob = job;
+        mOnSuccess = onSuccess;
+        mOnFailure = onFailure;
+    }
+
+    public void requestCancel() {
+        mCancelRequested = true;
+    }
+
+    @Override
+    protected T doInBackground() throws Exception {
+        return mJob.run((done, total) -> {
+            if (mCancelRequested) throw new CancellationException();
+            if (total > 0) setProgress((int) Math.min(100, done * 100 / total));
+        });
+    }
+
+    @Override
+    protected void done() {
+        T result;
+        try {
+            result = get();
+        } catch (CancellationException e) {
+            mOnFailure.accept("Cancelled.");
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            mOnFailure.accept("Interrupted.");
+            return;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            mOnFailure.accept(cause instanceof CancellationException ? "Cancelled." : String.valueOf(cause.getMessage()));
+            return;
+        }
+
+        mOnSuccess.accept(result);
+    }
+}
@@ -0,0 +1,265 @@
+package lucid.GUI;
+
+import lucid.grid.RoomCache;
+import lucid.grid.TileGrid;
+import lucid.grid.TileType;
+import lucid.serialization.IOProgress;
+import lucid.serialization.SerializationFormat;
+
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+
+/**
+ * The rooms open in the editor, in the order they are listed in the room box. Their grids live in a
+ * {@link RoomCache}, so rooms not used for a while are spilled to disk. Whenever a room becomes the current one, the
+ * room used before it and its neighbours in the list are prefetched, as those are the likeliest to be switched to next.
+ */
+public class RoomWorkspace {
+
+    /**
+     * Rooms either side of the current one, in list order, that are prefetched.
+     */
+    private static final int PREFETCH_NEIGHBORS = 1;
+
+    public static class Room {
+        private String mName;
+        private File mFile;
+
+        private Room(String name, File file) {
+            mName = name;
+            mFile = file;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * Where the room was loaded from or last saved to, or null if it never was.
+         */
+        public File getFile() {
+            return mFile;
+        }
+
+        @Override
+        public String toString() {
+            return mName;
+        }
+    }
+
+    /**
+     * Room box model that can be told a room was renamed.
+     */
+    private static class RoomListModel extends DefaultComboBoxModel<Room> {
+        void roomChanged(Room room) {
+            int index = getIndexOf(room);
+            if (index >= 0) fireContentsChanged(this, index, index);
+        }
+    }
+
+    /**
+     * A room file as the editor last read or wrote it: the room it held, and the file's size and modification time.
+     */
+    private static class FileStamp {
+        private final SerializationFormat mFormat;
+        private final long mContentHash;
+        private final long mLength;
+        private final FileTime mModified;
+
+        private FileStamp(File file, SerializationFormat format, long contentHash) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            mFormat = format;
+            mContentHash = contentHash;
+            mLength = attributes.size();
+            mModified = attributes.lastModifiedTime();
+        }
+
+        /**
+         * True if the file was not touched since, going by its size and modification time.
+         */
+        boolean isCurrent(File file) throws IOException {
+            FileStamp now = new FileStamp(file, mFormat, mContentHash);
+            return now.mLength == mLength && now.mModified.equals(mModified);
+        }
+    }
+
+    // By absolute file; written from the loading threads too
+    private final Map<File, FileStamp> mFileStamps = new ConcurrentHashMap<>();
+
+    private final RoomListModel mRooms = new RoomListModel();
+    private final RoomCache<Room> mCache = new RoomCache<>();
+
+    private Room mCurrent, mPrevious;
+    private int mUntitledCount;
+
+    public ComboBoxModel<Room> getModel() {
+        return mRooms;
+    }
+
+    public int getRoomCount() {
+        return mRooms.getSize();
+    }
+
+    public Room getCurrent() {
+        return mCurrent;
+    }
+
+    // vvv opening and closing vvv
+
+    /**
+     * Opens a room that has never been saved.
+     */
+    public Room addUntitled(TileGrid grid) {
+        return add(new Room("Untitled " + ++mUntitledCount, null), grid);
+    }
+
+    public Room add(File file, TileGrid grid) {
+        return add(new Room(file.getName(), file), grid);
+    }
+
+    private Room add(Room room, TileGrid grid) {
+        mCache.add(room, grid);
+        mRooms.addElement(room);
+        return room;
+    }
+
+    /**
+     * Opens a room that is only read from its file when it is first needed.
+     */
+    public Room add(File file, Callable<TileGrid> loader) {
+        Room room = new Room(file.getName(), file);
+        mCache.add(room, loader);
+        mRooms.addElement(room);
+        return room;
+    }
+
+    /**
+     * Returns the open room read from or saved to the file, or null.
+     */
+    public Room find(File file) {
+        for (int i = 0; i < mRooms.getSize(); i++) {
+            Room room = mRooms.getElementAt(i);
+            if (room.mFile != null && room.mFile.getAbsoluteFile().equals(file.getAbsoluteFile())) return room;
+        }
+        return null;
+    }
+
+    /**
+     * Closes a room, which must not be the current one.
+     */
+    public void remove(Room room) {
+        if (room == mCurrent) throw new IllegalArgumentException("Can't close the current room!");
+
+        if (room == mPrevious) mPrevious = null;
+        mCache.remove(room);
+        mRooms.removeElement(room);
+    }
+
+    /**
+     * Records that the room was saved to a file, which also names it.
+     */
+    public void setFile(Room room, File file) {
+        room.mFile = file;
+        room.mName = file.getName();
+
+        mRooms.roomChanged(room);
+    }
+
+    // vvv files vvv
+
+    /**
+     * Reads a room file, remembering what it held so that saving the same room back can be skipped while the file is
+     * untouched. Safe to call off the EDT.
+     */
+    public TileGrid read(File file, TileType activeTileType, IOProgress progress) throws IOException {
+        File key = file.getAbsoluteFile();
+        SerializationFormat format = SerializationFormat.detect(file);
+
+        // Only trusted if the file didn't change while it was read
+        FileStamp before = new FileStamp(file, format, 0);
+        TileGrid grid = new TileGrid(file, format, activeTileType, progress);
+        FileStamp after = new FileStamp(file, format, grid.getContentHash());
+
+        if (after.mLength == before.mLength && after.mModified.equals(before.mModified)) {
+            mFileStamps.put(key, after);
+        } else {
+            mFileStamps.remove(key);
+        }
+        return grid;
+    }
+
+    /**
+     * Records that a room with the content hash was just written to the file in the format. Safe to call off the EDT.
+     */
+    public void written(File file, SerializationFormat format, long contentHash) throws IOException {
+        mFileStamps.put(file.getAbsoluteFile(), new FileStamp(file, format, contentHash));
+    }
+
+    /**
+     * True if the file holds a room with the content hash, in the format, as the editor last read or wrote it. The
+     * hash stored inside the file isn't trusted: a file edited or merged elsewhere may have kept a stale one.
+     */
+    public boolean isSaved(File file, SerializationFormat format, long contentHash) throws IOException {
+        FileStamp stamp = mFileStamps.get(file.getAbsoluteFile());
+        return stamp != null && stamp.mFormat == format && stamp.mContentHash == contentHash && file.isFile()
+                && stamp.isCurrent(file);
+    }
+
+    // vvv switching vvv
+
+    /**
+     * Returns the room's grid if it is in memory, so it can be switched to at once; null otherwise.
+     */
+    public TileGrid getIfResident(Room room) {
+        return mCache.getIfResident(room);
+    }
+
+    /**
+     * Starts reading the room back in. Once the future is done, {@link #getIfResident(Room)} has the grid.
+     */
+    public Future<TileGrid> load(Room room) {
+        return mCache.load(room);
+    }
+
+    /**
+     * Makes the room, whose grid was just got from {@link #getIfResident(Room)}, the current one and prefetches
+     * the rooms likely to be used next.
+     */
+    public void setCurrent(Room room) {
+        if (room != mCurrent) {
+            mPrevious = mCurrent;
+            mCurrent = room;
+        }
+        mRooms.setSelectedItem(room);
+
+        if (mPrevious != null) mCache.prefetch(mPrevious);
+
+        int index = mRooms.getIndexOf(room);
+        for (int offset = 1; offset <= PREFETCH_NEIGHBORS; offset++) {
+            if (index + offset < mRooms.getSize()) mCache.prefetch(mRooms.getElementAt(index + offset));
+            if (index - offset >= 0) mCache.prefetch(mRooms.getElementAt(index - offset));
+        }
+    }
+
+    /**
+     * Throws if a room couldn't be spilled to disk since the last call; it stays in memory instead.
+     */
+    public void checkSpills() {
+        mCache.checkSpills();
+    }
+
+    /**
+     * Deletes the spill files. The workspace can't be used afterwards.
+     */
+    public void close() {
+        mCache.close();
+    }
+}
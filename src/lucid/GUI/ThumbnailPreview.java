@@ -0,0 +1,68 @@
+package lucid.GUI;
+
+import lucid.batch.RoomThumbnails;
+import lucid.serialization.SerializationFormat;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+
+/**
+ * File chooser accessory showing the thumbnail of the selected room, so rooms can be told apart without opening them.
+ * Thumbnails are made in the background and show up when ready.
+ */
+public class ThumbnailPreview extends JComponent implements PropertyChangeListener {
+
+    private static final int PADDING = 8;
+
+    private final RoomThumbnails mThumbnails;
+
+    // The file whose thumbnail is wanted, and its thumbnail once it is there
+    private File mFile;
+    private BufferedImage mImage;
+
+    public ThumbnailPreview(RoomThumbnails thumbnails, int size) {
+        mThumbnails = thumbnails;
+        setPreferredSize(new Dimension(size + 2 * PADDING, size + 2 * PADDING));
+    }
+
+    @Override
+    public void propertyChange(PropertyChangeEvent e) {
+        if (!JFileChooser.SELECTED_FILE_CHANGED_PROPERTY.equals(e.getPropertyName())) return;
+
+        File file = (File) e.getNewValue();
+        mFile = file;
+        mImage = null;
+        repaint();
+
+        if (file == null || !file.isFile() || !isRoomFile(file)) return;
+
+        mThumbnails.request(file.toPath()).whenComplete((thumbnail, failure) -> SwingUtilities.invokeLater(() -> {
+            // Ignored if another file was picked meanwhile, or if the room couldn't be read
+            if (file != mFile || thumbnail == null) return;
+
+            mImage = thumbnail.getImage();
+            repaint();
+        }));
+    }
+
+    private static boolean isRoomFile(File file) {
+        for (SerializationFormat format : SerializationFormat.values()) {
+            if (file.getName().endsWith("." + format.getExtension())) return true;
+        }
+        return false;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        if (mImage == null) return;
+
+        // Centered, at its own size
+        int x = (getWidth() - mImage.getWidth()) / 2, y = (getHeight() - mImage.getHeight()) / 2;
+        g.drawImage(mImage, x, y, null);
+    }
+}
@@ -1,60 +1,478 @@
 package lucid.GUI;
 
+import lucid.grid.RoomDiff;
+import lucid.grid.TileGrid;
+import lucid.grid.TileType;
+
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * Draws a tile grid from a one-pixel-per-tile image, scaled up with nearest-neighbour sampling in a single
+ * drawImage call, so painting costs about the same whatever the size of the grid.
+ * <p>
+ * The view can be panned (middle mouse drag) and zoomed (mouse wheel). Below one pixel per tile a box-filtered,
+ * downsampled copy of the image is drawn instead, one pixel per block of tiles.
+ * <p>
+ * A {@link RoomDiff} can be laid over the room, e.g. to show what changed since the last save, and so can the distance
+ * of every tile from the nearest door.
+ */
 public class TileGridPanel extends JPanel {
 
-    private int mWidth, mHeight, mScale;
-    private Color[] mColors;
+    private static final int MAX_SCALE = 128;
+
+    private int mWidth, mHeight;
+
+    // Pixels per tile when zoomed in, tiles per pixel (a power of two) when zoomed out; at most one is above 1
+    private int mScale = 1, mLod = 1;
+
+    // Where the top-left corner of the grid is on the panel
+    private int mOriginX, mOriginY;
+
+    // Level 0 is one pixel per tile, each level after it halves both sides. Built on demand.
+    private final List<BufferedImage> mLevels = new ArrayList<>();
+    private final List<int[]> mLevelPixels = new ArrayList<>();
 
     private boolean mShowIndices;
 
-    public void acceptRenderInfo(Color[] colors, int width, int height, int scale, boolean showIndices) {
-        mColors = colors; mWidth = width; mHeight = height; mScale = scale; mShowIndices = showIndices;
+    // Pixel color of each tile type, and whether its index labels are white, by ordinal
+    private final int[] mPalette = TileType.createRGBPalette();
+    private static final boolean[] WHITE_TEXT = TileType.createWhiteTextTable();
+
+    // Room last drawn, whose tile types pick the label colors
+    private TileGrid mGrid;
+
+    // Reused on every repaint, so painting allocates nothing
+    private final Rectangle mClip = new Rectangle();
+    private final Rectangle mVisible = new Rectangle();
+
+    private GlyphAtlas mGlyphs;
+
+    private static final Color DIFF_COLOR = new Color(255, 0, 255, 128);
+    private static final Color CONFLICT_COLOR = new Color(255, 0, 0, 192);
+
+    // Tiles to highlight, or null
+    private RoomDiff mChanges, mConflicts;
+
+    // Near to far from the doors, then unreachable floor and unreachable nests, treasure, POIs and portals
+    private static final int[] DISTANCE_RGB = createDistancePalette();
+    private static final int UNREACHABLE_FLOOR_RGB = 0x90000000;
+    private static final int UNREACHABLE_TARGET_RGB = 0xE0FF0000;
+
+    // Room whose door distances are shown, or null. Its reachability is worked out on the EDT like its other edits
+    private TileGrid mDistances;
+
+    // One pixel per visible pixel of the current level, rebuilt on every paint; grown as needed
+    private BufferedImage mDistanceImage;
+    private int[] mDistancePixels;
+
+    public TileGridPanel() {
+        MouseAdapter camera = new MouseAdapter() {
+            private Point mDragStart;
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                if (SwingUtilities.isMiddleMouseButton(e)) mDragStart = e.getPoint();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (mDragStart == null || !SwingUtilities.isMiddleMouseButton(e)) return;
+
+                pan(e.getX() - mDragStart.x, e.getY() - mDragStart.y);
+                mDragStart = e.getPoint();
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                if (SwingUtilities.isMiddleMouseButton(e)) mDragStart = null;
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                zoom(-e.getWheelRotation(), e.getPoint());
+            }
+        };
+
+        addMouseListener(camera);
+        addMouseMotionListener(camera);
+        addMouseWheelListener(camera);
+    }
+
+    /**
+     * Takes a fresh copy of every tile. The camera is left where it is; call {@link #fitToView()} for a new room.
+     */
+    public void acceptRenderInfo(TileGrid grid, boolean showIndices) {
+        mGrid = grid;
+        mShowIndices = showIndices;
+
+        // Only reallocate the raster when the grid changes size
+        BufferedImage image = mLevels.isEmpty() ? null : mLevels.get(0);
+        if (image == null || image.getWidth() != grid.getWidth() || image.getHeight() != grid.getHeight()) {
+            mWidth = grid.getWidth(); mHeight = grid.getHeight();
+            image = new BufferedImage(mWidth, mHeight, BufferedImage.TYPE_INT_RGB);
+
+            mLevels.clear(); mLevelPixels.clear();
+            mLevels.add(image);
+
+            // A diff only fits the room it was made for
+            mChanges = null; mConflicts = null;
+            mLevelPixels.add(((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+        }
+
+        grid.getTileRGB(0, 0, mWidth, mHeight, mPalette, mLevelPixels.get(0), 0, mWidth);
+
+        // The downsampled levels are rebuilt from scratch the next time they are drawn
+        while (mLevels.size() > 1) {
+            mLevels.remove(mLevels.size() - 1);
+            mLevelPixels.remove(mLevelPixels.size() - 1);
+        }
+
+        repaint();
+    }
+
+    /**
+     * Rewrites the pixels of a region of tiles and repaints only the area they cover.
+     */
+    public void updateTiles(TileGrid grid, Rectangle tiles) {
+        mGrid = grid;
+        grid.getTileRGB(tiles.x, tiles.y, tiles.width, tiles.height, mPalette, mLevelPixels.get(0),
+                tiles.x + tiles.y * mWidth, mWidth);
+
+        for (int level = 1; level < mLevels.size(); level++) {
+            int x0 = tiles.x >> level, y0 = tiles.y >> level;
+            int x1 = (tiles.x + tiles.width - 1) >> level, y1 = (tiles.y + tiles.height - 1) >> level;
+            downsample(level, x0, y0, x1 - x0 + 1, y1 - y0 + 1);
+        }
+
+        repaintTiles(tiles);
+    }
+
+    // vvv camera vvv
+
+    /**
+     * Picks the largest zoom that fits the whole grid, with a tile of padding, and centers it.
+     */
+    public void fitToView() {
+        int scale = Math.min(getWidth() / (mWidth + 1), getHeight() / (mHeight + 1));
+
+        if (scale >= 1) {
+            mScale = Math.min(scale, MAX_SCALE); mLod = 1;
+        } else {
+            // Too big for a pixel per tile: find the first downsampled level that fits
+            mScale = 1; mLod = 2;
+            while (mLod < getMaxLod() && (ceilDiv(mWidth, mLod) + 1 > getWidth() || ceilDiv(mHeight, mLod) + 1 > getHeight())) {
+                mLod *= 2;
+            }
+        }
+
+        mOriginX = (getWidth() - ceilDiv(mWidth, mLod) * mScale) / 2;
+        mOriginY = (getHeight() - ceilDiv(mHeight, mLod) * mScale) / 2;
+        repaint();
+    }
+
+    /**
+     * Highlights the tiles a diff touches, and more strongly the conflicts of a merge. Either may be null; both null
+     * turns the overlay off. Diffs must be for a room the size of the one shown.
+     */
+    public void setDiffOverlay(RoomDiff changes, RoomDiff conflicts) {
+        mChanges = changes;
+        mConflicts = conflicts;
+        repaint();
+    }
+
+    /**
+     * Tints every tile by its distance from the nearest door, and marks what no door reaches, or stops when null. The
+     * room is read as it is painted, so call {@link #repaint()} after editing it.
+     */
+    public void setDistanceOverlay(TileGrid grid) {
+        mDistances = grid;
+        repaint();
+    }
+
+    private static int[] createDistancePalette() {
+        int[] palette = new int[256];
+        for (int i = 0; i < palette.length; i++) {
+            // Green for next to a door, through yellow, to red for the far end of the room
+            float hue = (1 - i / 255f) / 3;
+            palette[i] = 0x80000000 | (Color.HSBtoRGB(hue, 1, 1) & 0xFFFFFF);
+        }
+        return palette;
+    }
+
+    public void pan(int dx, int dy) {
+        mOriginX += dx; mOriginY += dy;
         repaint();
     }
 
+    /**
+     * Zooms in (positive steps) or out by factors of two, keeping the tile under the anchor where it is.
+     */
+    public void zoom(int steps, Point anchor) {
+        double tileX = (anchor.x - mOriginX) / getScale();
+        double tileY = (anchor.y - mOriginY) / getScale();
+
+        for (; steps > 0; steps--) {
+            if (mLod > 1) mLod /= 2;
+            else if (mScale < MAX_SCALE) mScale *= 2;
+        }
+        for (; steps < 0; steps++) {
+            if (mScale > 1) mScale /= 2;
+            else if (mLod < getMaxLod()) mLod *= 2;
+        }
+
+        mOriginX = (int) Math.round(anchor.x - tileX * getScale());
+        mOriginY = (int) Math.round(anchor.y - tileY * getScale());
+        repaint();
+    }
+
+    /**
+     * Pixels per tile on screen. Below 1 when zoomed out past one pixel per tile.
+     */
+    public double getScale() {
+        return mScale / (double) mLod;
+    }
+
     public Point getTopLeftOfTileGrid() {
-        return new Point(
-                (getWidth() - (mWidth * mScale)) / 2,
-                (getHeight() - (mHeight * mScale)) / 2
-        );
+        return new Point(mOriginX, mOriginY);
+    }
+
+    private int getMaxLod() {
+        return Math.max(1, Integer.highestOneBit(Math.max(mWidth, mHeight)));
+    }
+
+    private void repaintTiles(Rectangle tiles) {
+        if (mLod == 1) {
+            repaint(mOriginX + tiles.x * mScale, mOriginY + tiles.y * mScale, tiles.width * mScale, tiles.height * mScale);
+            return;
+        }
+
+        int x0 = tiles.x / mLod, y0 = tiles.y / mLod;
+        int x1 = (tiles.x + tiles.width - 1) / mLod, y1 = (tiles.y + tiles.height - 1) / mLod;
+        repaint(mOriginX + x0, mOriginY + y0, x1 - x0 + 1, y1 - y0 + 1);
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    // vvv levels of detail vvv
+
+    private int getLevel() {
+        return Integer.numberOfTrailingZeros(mLod);
+    }
+
+    private BufferedImage getLevelImage(int level) {
+        while (mLevels.size() <= level) {
+            int next = mLevels.size();
+            BufferedImage previous = mLevels.get(next - 1);
+
+            BufferedImage image = new BufferedImage(ceilDiv(previous.getWidth(), 2), ceilDiv(previous.getHeight(), 2),
+                    BufferedImage.TYPE_INT_RGB);
+            mLevels.add(image);
+            mLevelPixels.add(((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+
+            downsample(next, 0, 0, image.getWidth(), image.getHeight());
+        }
+
+        return mLevels.get(level);
+    }
+
+    /**
+     * Averages each 2x2 block of the level above into one pixel of this level, for the given region of this level.
+     */
+    private void downsample(int level, int regionX, int regionY, int regionWidth, int regionHeight) {
+        BufferedImage source = mLevels.get(level - 1);
+        int[] from = mLevelPixels.get(level - 1), to = mLevelPixels.get(level);
+        int sourceWidth = source.getWidth(), sourceHeight = source.getHeight();
+        int width = mLevels.get(level).getWidth();
+
+        for (int y = regionY; y < regionY + regionHeight; y++) {
+            for (int x = regionX; x < regionX + regionWidth; x++) {
+                int red = 0, green = 0, blue = 0, count = 0;
+
+                for (int sy = y * 2; sy < Math.min(y * 2 + 2, sourceHeight); sy++) {
+                    for (int sx = x * 2; sx < Math.min(x * 2 + 2, sourceWidth); sx++) {
+                        int rgb = from[sx + sy * sourceWidth];
+                        red += (rgb >> 16) & 0xFF; green += (rgb >> 8) & 0xFF; blue += rgb & 0xFF;
+                        count++;
+                    }
+                }
+
+                to[x + y * width] = (red / count) << 16 | (green / count) << 8 | (blue / count);
+            }
+        }
     }
 
+    // vvv painting vvv
+
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
+        if (mLevels.isEmpty()) return;
+
         Graphics2D gg = (Graphics2D)g;
 
-        // Offsets to center in screen
-        int offX = (getWidth() - (mWidth * mScale)) / 2;
-        int offY = (getHeight() - (mHeight * mScale)) / 2;
+        // Draw only the pixels of the current level that land inside the clip
+        BufferedImage image = getLevelImage(getLevel());
+        Rectangle visible = getVisiblePixels(gg, image);
+        if (visible.isEmpty()) return;
 
-        // Get font info before looping
-        FontMetrics font = gg.getFontMetrics();
+        // Nearest neighbour keeps tile edges hard
+        gg.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        gg.drawImage(image,
+                mOriginX + visible.x * mScale, mOriginY + visible.y * mScale,
+                mOriginX + (visible.x + visible.width) * mScale, mOriginY + (visible.y + visible.height) * mScale,
+                visible.x, visible.y, visible.x + visible.width, visible.y + visible.height, null);
 
-        for (int y = 0; y < mHeight; y++)
-        {
-            for (int x = 0; x < mWidth; x++)
-            {
-                int index = x + y * mWidth;
-                Color color = mColors[index];
+        if (mShowIndices && mLod == 1) paintIndices(gg, visible);
 
-                int posX = x * mScale + offX; int posY = y * mScale + offY;
+        if (mDistances != null) paintDistances(gg, visible);
+        if (mChanges != null) paintDiff(gg, mChanges, DIFF_COLOR, visible);
+        if (mConflicts != null) paintDiff(gg, mConflicts, CONFLICT_COLOR, visible);
+    }
+
+    /**
+     * Samples the door distance of one tile per visible pixel of the current level into an image of its own, then
+     * draws that at the same scale as the room, so the cost follows the size of the panel, not of the room.
+     */
+    private void paintDistances(Graphics2D gg, Rectangle visible) {
+        if (mDistances.getWidth() != mWidth || mDistances.getHeight() != mHeight) return;
+
+        if (mDistanceImage == null || mDistanceImage.getWidth() < visible.width
+                || mDistanceImage.getHeight() < visible.height) {
+            int width = Math.max(visible.width, mDistanceImage != null ? mDistanceImage.getWidth() : 0);
+            int height = Math.max(visible.height, mDistanceImage != null ? mDistanceImage.getHeight() : 0);
+            mDistanceImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            mDistancePixels = ((DataBufferInt) mDistanceImage.getRaster().getDataBuffer()).getData();
+        }
+
+        int stride = mDistanceImage.getWidth();
+        int maxDistance = Math.max(mDistances.getMaxDoorDistance(), 1);
+
+        for (int y = 0; y < visible.height; y++) {
+            int row = (visible.y + y) * mLod * mWidth;
+            for (int x = 0; x < visible.width; x++) {
+                int index = row + (visible.x + x) * mLod;
+                int distance = mDistances.getDoorDistance(index);
+
+                int argb;
+                if (distance > 0) {
+                    argb = DISTANCE_RGB[(int) ((long) distance * (DISTANCE_RGB.length - 1) / maxDistance)];
+                } else if (distance == 0) {
+                    argb = 0;
+                } else {
+                    switch (mDistances.getTileType(index)) {
+                        case Floor:
+                            argb = UNREACHABLE_FLOOR_RGB;
+                            break;
+                        case Nest:
+                        case Treasure:
+                        case POI:
+                        case Portal:
+                            argb = UNREACHABLE_TARGET_RGB;
+                            break;
+                        default:
+                            argb = 0;
+                    }
+                }
+
+                mDistancePixels[x + y * stride] = argb;
+            }
+        }
+
+        gg.drawImage(mDistanceImage,
+                mOriginX + visible.x * mScale, mOriginY + visible.y * mScale,
+                mOriginX + (visible.x + visible.width) * mScale, mOriginY + (visible.y + visible.height) * mScale,
+                0, 0, visible.width, visible.height, null);
+    }
+
+    /**
+     * Fills the changed runs and tiles of the diff that fall in the visible pixels of the current level.
+     */
+    private void paintDiff(Graphics2D gg, RoomDiff diff, Color color, Rectangle visible) {
+        if (diff.getWidth() != mWidth || diff.getHeight() != mHeight) return;
+
+        // The visible pixels, in tiles
+        int firstX = visible.x * mLod, lastX = Math.min((visible.x + visible.width) * mLod, mWidth) - 1;
+        int firstY = visible.y * mLod, lastY = Math.min((visible.y + visible.height) * mLod, mHeight) - 1;
+        int first = firstX + firstY * mWidth, last = lastX + lastY * mWidth;
+
+        gg.setColor(color);
+
+        for (int run = diff.findRun(first); run < diff.getRunCount(); run++) {
+            int start = diff.getRunStart(run);
+            if (start > last) break;
 
-                gg.setColor(color);
-                gg.fillRect(posX, posY, mScale, mScale);
+            int y = start / mWidth, x = start - y * mWidth;
+            int from = Math.max(x, firstX), to = Math.min(x + diff.getRunLength(run) - 1, lastX);
+            if (from <= to) fillTiles(gg, from, y, to - from + 1);
+        }
+
+        for (int change = diff.findMetadataChange(first); change < diff.getMetadataChangeCount(); change++) {
+            int index = diff.getMetadataIndex(change);
+            if (index > last) break;
+
+            int y = index / mWidth, x = index - y * mWidth;
+            if (x >= firstX && x <= lastX) fillTiles(gg, x, y, 1);
+        }
+    }
+
+    /**
+     * Fills length tiles of a row from (x, y) on. Zoomed out, the tiles are rounded out to whole pixels.
+     */
+    private void fillTiles(Graphics2D gg, int x, int y, int length) {
+        if (mLod == 1) {
+            gg.fillRect(mOriginX + x * mScale, mOriginY + y * mScale, length * mScale, mScale);
+        } else {
+            int left = x / mLod, right = (x + length - 1) / mLod;
+            gg.fillRect(mOriginX + left, mOriginY + y / mLod, right - left + 1, 1);
+        }
+    }
 
-                if (!mShowIndices) continue;
+    /**
+     * The pixels of the given level image, each drawn mScale wide, that overlap the clip. The rectangle returned is
+     * reused by the next call.
+     */
+    private Rectangle getVisiblePixels(Graphics2D gg, BufferedImage image) {
+        // Left as the whole panel when there is no clip
+        mClip.setBounds(0, 0, getWidth(), getHeight());
+        Rectangle clip = gg.getClipBounds(mClip);
 
-                int posYStr = posY + font.getHeight();
+        int firstX = Math.max(0, Math.floorDiv(clip.x - mOriginX, mScale));
+        int firstY = Math.max(0, Math.floorDiv(clip.y - mOriginY, mScale));
+        int lastX = Math.min(image.getWidth() - 1, Math.floorDiv(clip.x + clip.width - 1 - mOriginX, mScale));
+        int lastY = Math.min(image.getHeight() - 1, Math.floorDiv(clip.y + clip.height - 1 - mOriginY, mScale));
 
-                double Y = (299 * color.getRed() + 587 * color.getGreen() + 114 * color.getBlue()) / 1000f;
-                Color textColor = Y >= 128 ? Color.black : Color.white;
+        mVisible.setBounds(firstX, firstY, Math.max(0, lastX - firstX + 1), Math.max(0, lastY - firstY + 1));
+        return mVisible;
+    }
+
+    private void paintIndices(Graphics2D gg, Rectangle visible) {
+        // Rebuild the digit glyphs only when the font changes
+        if (mGlyphs == null || !mGlyphs.getFont().equals(gg.getFont())) {
+            mGlyphs = new GlyphAtlas(this, gg.getFont());
+        }
+
+        // Labels smaller than a line of text are unreadable anyway
+        if (mScale < mGlyphs.getHeight()) return;
+
+        for (int y = visible.y; y < visible.y + visible.height; y++)
+        {
+            for (int x = visible.x; x < visible.x + visible.width; x++)
+            {
+                int index = x + y * mWidth;
+                boolean white = WHITE_TEXT[mGrid.getTileType(index).ordinal()];
 
-                gg.setColor(textColor);
-                gg.drawString(String.valueOf(index), posX, posYStr);
+                int posX = x * mScale + mOriginX; int posY = y * mScale + mOriginY + mGlyphs.getHeight();
+                mGlyphs.drawNumber(gg, index, posX, posY, white);
             }
         }
     }
@@ -0,0 +1,52 @@
+package lucid.batch;
+
+/**
+ * Machine-readable result of a batch run, written out as JSON.
+ */
+public class BatchSummary {
+
+    public int files;
+    public int valid;
+    public int invalid;
+    public int errors;
+    public int converted;
+
+    // Valid rooms with tiles or doors no door reaches; only counted with --reachability
+    public int unreachable;
+
+    public int threads;
+    public long wallMillis;
+
+    public String convertTo;
+
+    public RoomResult[] rooms;
+
+    // Groups of rooms with the same content hash, each listed by file; only groups of two or more
+    public String[][] duplicates;
+
+    public static class RoomResult
+    {
+        public String file;
+        public String format;
+        public Status status;
+        public String message;
+        public int[] invalidTiles;
+        public String convertedTo;
+        public String contentHash;
+
+        // Only with --reachability: targets no door reaches, doors cut off from the first one, and the longest walk
+        public int[] unreachableTiles;
+        public int[] disconnectedDoors;
+        public int maxDoorDistance;
+
+        public double loadMillis;
+        public double validateMillis;
+        public double analyzeMillis;
+        public double convertMillis;
+    }
+
+    public enum Status
+    {
+        VALID, INVALID, ERROR
+    }
+}
@@ -0,0 +1,220 @@
+package lucid.batch;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import lucid.grid.RoomDiff;
+import lucid.grid.TileGrid;
+import lucid.grid.TileType;
+import lucid.serialization.SerializationFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Headless entry point for a three-way merge of rooms: two versions edited from a common base are combined tile by
+ * tile, and the tiles both sides changed differently are reported as conflicts. The three rooms are read in parallel
+ * and merged in one pass over their tiles.
+ */
+public class MergeBatch {
+
+    public static final String COMMAND = "merge";
+
+    /**
+     * At most this many conflicting tiles are listed one by one in the summary.
+     */
+    private static final int MAX_REPORTED_CONFLICTS = 1000;
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: " + COMMAND + " <base> <ours> <theirs> [options]",
+            "  --out <file>        write the merged room (only if there are no conflicts, unless --keep-ours)",
+            "  --format <format>   JSON, BINARY or JSON_COMPACT (default: from the --out extension)",
+            "  --keep-ours         settle conflicts by keeping ours, and write the room anyway",
+            "  --summary <file>    write the JSON summary to a file instead of stdout");
+
+    /**
+     * Parses the arguments, runs the merge and returns the process exit code: failures if there were conflicts,
+     * unless they were settled with --keep-ours.
+     */
+    public static int run(String[] args) {
+        List<Path> rooms = new ArrayList<>(3);
+        Path output = null, summaryFile = null;
+        SerializationFormat format = null;
+        boolean keepOurs = false;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--out":
+                        output = Paths.get(args[++i]);
+                        break;
+                    case "--format":
+                        format = SerializationFormat.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                        break;
+                    case "--keep-ours":
+                        keepOurs = true;
+                        break;
+                    case "--summary":
+                        summaryFile = Paths.get(args[++i]);
+                        break;
+                    default:
+                        if (rooms.size() == 3 || args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                        }
+                        rooms.add(Paths.get(args[i]));
+                }
+            }
+            if (rooms.size() != 3) throw new IllegalArgumentException("Need a base, ours and theirs!");
+            for (Path room : rooms) {
+                if (!Files.isRegularFile(room)) throw new IllegalArgumentException("No such room: " + room);
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage() != null ? e.getMessage() : "Missing option value!");
+            System.err.println(USAGE);
+            return RoomBatch.EXIT_USAGE;
+        }
+
+        if (output != null && format == null) format = SerializationFormat.fromFileName(output.toString());
+
+        MergeSummary summary = merge(rooms.get(0), rooms.get(1), rooms.get(2), output, format, keepOurs);
+
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        try {
+            if (summaryFile != null) {
+                try (Writer writer = Files.newBufferedWriter(summaryFile, StandardCharsets.UTF_8)) {
+                    gson.toJson(summary, writer);
+                }
+            } else {
+                System.out.println(gson.toJson(summary));
+            }
+        } catch (IOException e) {
+            System.err.println("Couldn't write the summary: " + e.getMessage());
+            return RoomBatch.EXIT_FAILURES;
+        }
+
+        boolean settled = summary.conflictTiles + summary.conflictFields == 0 || keepOurs;
+        return summary.message == null && settled ? RoomBatch.EXIT_OK : RoomBatch.EXIT_FAILURES;
+    }
+
+    private static MergeSummary merge(Path base, Path ours, Path theirs, Path output, SerializationFormat format,
+                                      boolean keepOurs) {
+        MergeSummary summary = new MergeSummary();
+        summary.base = base.toString();
+        summary.ours = ours.toString();
+        summary.theirs = theirs.toString();
+
+        try {
+            long start = System.nanoTime();
+            CompletableFuture<TileGrid> baseGrid = load(base), ourGrid = load(ours), theirGrid = load(theirs);
+            TileGrid baseRoom = join(baseGrid), ourRoom = join(ourGrid), theirRoom = join(theirGrid);
+            long loaded = System.nanoTime();
+
+            RoomDiff.Merge merge = RoomDiff.merge(baseRoom, ourRoom, theirRoom);
+            long merged = System.nanoTime();
+
+            summary.width = ourRoom.getWidth();
+            summary.height = ourRoom.getHeight();
+            summary.changedTiles = merge.getChanges().getChangedTileCount();
+            summary.changedFields = merge.getChanges().getMetadataChangeCount();
+            summary.conflictTiles = merge.getConflicts().getChangedTileCount();
+            summary.conflictFields = merge.getConflicts().getMetadataChangeCount();
+            summary.conflicts = listConflicts(merge.getConflicts(), merge.getGrid());
+            summary.conflictsTruncated = summary.conflicts.length < summary.conflictTiles + summary.conflictFields;
+            summary.contentHash = SerializationFormat.formatContentHash(merge.getGrid().getContentHash());
+            summary.loadMillis = toMillis(loaded - start);
+            summary.mergeMillis = toMillis(merged - loaded);
+
+            if (output != null && (merge.isClean() || keepOurs)) {
+                merge.getGrid().serialize(output.toFile(), format);
+
+                summary.saveMillis = toMillis(System.nanoTime() - merged);
+                summary.output = output.toString();
+            }
+        } catch (IOException | UncheckedIOException e) {
+            summary.message = "I/O error: " + e.getMessage();
+        } catch (RuntimeException e) {
+            summary.message = e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+
+        return summary;
+    }
+
+    private static CompletableFuture<TileGrid> load(Path room) {
+        return CompletableFuture.supplyAsync(() -> {
+            File file = room.toFile();
+            try {
+                return new TileGrid(file, SerializationFormat.detect(file), TileType.Floor);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Waits for a load, rethrowing what it failed with.
+     */
+    private static TileGrid join(CompletableFuture<TileGrid> load) throws IOException {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) throw ((UncheckedIOException) cause).getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * The first conflicting tiles in index order, whether their types or only their fields disagree.
+     */
+    private static MergeSummary.Conflict[] listConflicts(RoomDiff conflicts, TileGrid merged) {
+        List<MergeSummary.Conflict> listed = new ArrayList<>();
+
+        int run = 0, field = 0;
+        int offset = 0;
+        while (listed.size() < MAX_REPORTED_CONFLICTS
+                && (run < conflicts.getRunCount() || field < conflicts.getMetadataChangeCount())) {
+            int runIndex = run < conflicts.getRunCount() ? conflicts.getRunStart(run) + offset : Integer.MAX_VALUE;
+            int fieldIndex = field < conflicts.getMetadataChangeCount()
+                    ? conflicts.getMetadataIndex(field) : Integer.MAX_VALUE;
+
+            MergeSummary.Conflict conflict = new MergeSummary.Conflict();
+            if (runIndex < fieldIndex) {
+                conflict.index = runIndex;
+                conflict.ours = conflicts.getOldType(run).name();
+                conflict.theirs = conflicts.getNewType(run).name();
+
+                if (++offset == conflicts.getRunLength(run)) {
+                    run++;
+                    offset = 0;
+                }
+            } else {
+                // The merged room kept ours, which has the same type as theirs
+                conflict.index = fieldIndex;
+                conflict.ours = conflict.theirs = merged.getTileType(fieldIndex).name();
+                conflict.fieldsOnly = true;
+                field++;
+            }
+
+            conflict.x = conflict.index % conflicts.getWidth();
+            conflict.y = conflict.index / conflicts.getWidth();
+            listed.add(conflict);
+        }
+
+        return listed.toArray(new MergeSummary.Conflict[0]);
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
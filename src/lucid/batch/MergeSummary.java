@@ -0,0 +1,46 @@
+package lucid.batch;
+
+/**
+ * Machine-readable result of a three-way merge, written out as JSON.
+ */
+public class MergeSummary {
+
+    public String base;
+    public String ours;
+    public String theirs;
+    public String output;
+
+    public int width;
+    public int height;
+
+    // What was taken from theirs
+    public long changedTiles;
+    public int changedFields;
+
+    // What both sides changed, each its own way; ours is kept there
+    public long conflictTiles;
+    public int conflictFields;
+
+    // The first conflicts, tile by tile; true if there were more
+    public Conflict[] conflicts;
+    public boolean conflictsTruncated;
+
+    public String contentHash;
+    public String message;
+
+    public double loadMillis;
+    public double mergeMillis;
+    public double saveMillis;
+
+    public static class Conflict
+    {
+        public int index;
+        public int x;
+        public int y;
+        public String ours;
+        public String theirs;
+
+        // Same type on both sides, different nest, POI or door fields
+        public boolean fieldsOnly;
+    }
+}
@@ -0,0 +1,314 @@
+package lucid.batch;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import lucid.grid.TileGrid;
+import lucid.grid.TileType;
+import lucid.serialization.SerializationFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Headless entry point that validates, and optionally converts, every room in a directory tree. Rooms are spread over
+ * a work-stealing pool sized to the machine, and the run ends with a JSON summary of failures and timings. Valid rooms
+ * can also be checked for nests, treasure, POIs, portals and doors that no door reaches.
+ */
+public class RoomBatch {
+
+    public static final String COMMAND = "batch";
+
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_FAILURES = 1;
+    public static final int EXIT_USAGE = 2;
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: " + COMMAND + " <directory> [options]",
+            "  --convert <format>  also write every valid room as JSON, BINARY or JSON_COMPACT",
+            "  --out <directory>   where converted rooms go; required with --convert, outside the room directory",
+            "  --reachability      also report what can't be reached from the doors, and fail if anything can't",
+            "  --threads <n>       worker threads (default: all cores)",
+            "  --summary <file>    write the JSON summary to a file instead of stdout");
+
+    private final Path mRoot;
+    private final Path mOutput;
+    private final SerializationFormat mConvertTo;
+    private final boolean mCheckReachability;
+    private final int mThreads;
+
+    /**
+     * Converted rooms go to the output directory, which must not overlap the root: JSON and JSON_COMPACT share an
+     * extension, so a room converted next to itself would overwrite its source, and anything written under the root
+     * would be picked up as a room by the next run.
+     */
+    public RoomBatch(Path root, Path output, SerializationFormat convertTo, boolean checkReachability, int threads) {
+        mRoot = root.toAbsolutePath().normalize();
+        mOutput = output != null ? output.toAbsolutePath().normalize() : mRoot;
+        if (convertTo != null && (mOutput.startsWith(mRoot) || mRoot.startsWith(mOutput))) {
+            throw new IllegalArgumentException(output == null ? "Converting needs an --out directory!"
+                    : "The --out directory must be outside the room directory!");
+        }
+        mConvertTo = convertTo;
+        mCheckReachability = checkReachability;
+        mThreads = threads;
+    }
+
+    /**
+     * Parses the arguments, runs the batch and returns the process exit code.
+     */
+    public static int run(String[] args) {
+        Path root = null, output = null, summaryFile = null;
+        SerializationFormat convertTo = null;
+        boolean checkReachability = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        RoomBatch batch;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--convert":
+                        convertTo = SerializationFormat.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                        break;
+                    case "--out":
+                        output = Paths.get(args[++i]);
+                        break;
+                    case "--reachability":
+                        checkReachability = true;
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        if (threads < 1) throw new IllegalArgumentException("Need at least one thread!");
+                        break;
+                    case "--summary":
+                        summaryFile = Paths.get(args[++i]);
+                        break;
+                    default:
+                        if (root != null || args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                        }
+                        root = Paths.get(args[i]);
+                }
+            }
+            if (root == null || !Files.isDirectory(root)) {
+                throw new IllegalArgumentException("Need a directory of rooms!");
+            }
+            batch = new RoomBatch(root, output, convertTo, checkReachability, threads);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage() != null ? e.getMessage() : "Missing option value!");
+            System.err.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        BatchSummary summary;
+        try {
+            summary = batch.process();
+        } catch (IOException e) {
+            System.err.println("Couldn't scan " + root + ": " + e.getMessage());
+            return EXIT_FAILURES;
+        }
+
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        try {
+            if (summaryFile != null) {
+                try (Writer writer = Files.newBufferedWriter(summaryFile, StandardCharsets.UTF_8)) {
+                    gson.toJson(summary, writer);
+                }
+            } else {
+                System.out.println(gson.toJson(summary));
+            }
+        } catch (IOException e) {
+            System.err.println("Couldn't write the summary: " + e.getMessage());
+            return EXIT_FAILURES;
+        }
+
+        return summary.invalid + summary.errors + summary.unreachable == 0 ? EXIT_OK : EXIT_FAILURES;
+    }
+
+    public BatchSummary process() throws IOException {
+        List<Path> rooms = findRooms();
+        long start = System.nanoTime();
+
+        List<Callable<BatchSummary.RoomResult>> tasks = new ArrayList<>(rooms.size());
+        for (Path room : rooms) {
+            tasks.add(() -> processRoom(room));
+        }
+
+        List<BatchSummary.RoomResult> results = new ArrayList<>(rooms.size());
+        ForkJoinPool pool = new ForkJoinPool(mThreads);
+        try {
+            for (Future<BatchSummary.RoomResult> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // processRoom() reports its own failures, so this is a bug
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        BatchSummary summary = new BatchSummary();
+        summary.files = results.size();
+        summary.threads = mThreads;
+        summary.wallMillis = (System.nanoTime() - start) / 1_000_000;
+        summary.convertTo = mConvertTo != null ? mConvertTo.name() : null;
+        summary.rooms = results.toArray(new BatchSummary.RoomResult[0]);
+
+        for (BatchSummary.RoomResult result : results) {
+            switch (result.status) {
+                case VALID:
+                    summary.valid++;
+                    break;
+                case INVALID:
+                    summary.invalid++;
+                    break;
+                case ERROR:
+                    summary.errors++;
+                    break;
+            }
+            if (result.convertedTo != null) summary.converted++;
+            if (result.unreachableTiles != null
+                    && result.unreachableTiles.length + result.disconnectedDoors.length > 0) {
+                summary.unreachable++;
+            }
+        }
+        summary.duplicates = findDuplicates(results);
+
+        return summary;
+    }
+
+    private List<Path> findRooms() throws IOException {
+        return findRooms(mRoot, mOutput);
+    }
+
+    /**
+     * Every file with a room extension under the root, sorted so summaries are stable from run to run. Files in the
+     * output directory are left out, unless it is the root itself.
+     */
+    static List<Path> findRooms(Path root, Path output) throws IOException {
+        List<String> extensions = Arrays.stream(SerializationFormat.values())
+                .map(format -> "." + format.getExtension()).distinct().collect(Collectors.toList());
+
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(path -> !path.startsWith(output) || output.equals(root))
+                    .filter(path -> extensions.stream().anyMatch(path.getFileName().toString()::endsWith))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private BatchSummary.RoomResult processRoom(Path room) {
+        BatchSummary.RoomResult result = new BatchSummary.RoomResult();
+        result.file = mRoot.relativize(room).toString();
+
+        try {
+            File file = room.toFile();
+            SerializationFormat format = SerializationFormat.detect(file);
+            result.format = format.name();
+
+            long start = System.nanoTime();
+            TileGrid grid = new TileGrid(file, format, TileType.Floor);
+            long loaded = System.nanoTime();
+            int[] invalidTiles = grid.getInvalidTiles();
+            long validated = System.nanoTime();
+
+            result.contentHash = SerializationFormat.formatContentHash(grid.getContentHash());
+            result.loadMillis = toMillis(loaded - start);
+            result.validateMillis = toMillis(validated - loaded);
+
+            if (invalidTiles.length > 0) {
+                result.status = BatchSummary.Status.INVALID;
+                result.invalidTiles = invalidTiles;
+                result.message = String.format("%d border tile(s) are invalid", invalidTiles.length);
+                return result;
+            }
+
+            result.status = BatchSummary.Status.VALID;
+
+            if (mCheckReachability) {
+                result.unreachableTiles = grid.getUnreachableTiles();
+                result.disconnectedDoors = grid.getDisconnectedDoors();
+                result.maxDoorDistance = grid.getMaxDoorDistance();
+                long analyzed = System.nanoTime();
+                result.analyzeMillis = toMillis(analyzed - validated);
+                validated = analyzed;
+
+                // Still valid, and still converted: unreachable content is a design problem, not a broken file
+                if (result.unreachableTiles.length + result.disconnectedDoors.length > 0) {
+                    result.message = String.format("%d tile(s) are out of reach of every door, %d door(s) are cut off",
+                            result.unreachableTiles.length, result.disconnectedDoors.length);
+                }
+            }
+
+            if (mConvertTo != null) {
+                Path target = getConversionTarget(room);
+                Files.createDirectories(target.toAbsolutePath().getParent());
+
+                grid.serialize(target.toFile(), mConvertTo);
+
+                result.convertMillis = toMillis(System.nanoTime() - validated);
+                result.convertedTo = mOutput.relativize(target).toString();
+            }
+        } catch (IOException | UncheckedIOException e) {
+            result.status = BatchSummary.Status.ERROR;
+            result.message = "I/O error: " + e.getMessage();
+        } catch (RuntimeException e) {
+            result.status = BatchSummary.Status.ERROR;
+            result.message = e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+
+        return result;
+    }
+
+    /**
+     * Groups the rooms that loaded by content hash, keeping the groups with more than one room, in file order.
+     */
+    private static String[][] findDuplicates(List<BatchSummary.RoomResult> results) {
+        Map<String, List<String>> byHash = new LinkedHashMap<>();
+        for (BatchSummary.RoomResult result : results) {
+            if (result.contentHash != null) {
+                byHash.computeIfAbsent(result.contentHash, hash -> new ArrayList<>()).add(result.file);
+            }
+        }
+
+        return byHash.values().stream().filter(files -> files.size() > 1)
+                .map(files -> files.toArray(new String[0])).toArray(String[][]::new);
+    }
+
+    /**
+     * Mirrors the room's place under the root into the output directory, with the target format's extension.
+     */
+    private Path getConversionTarget(Path room) {
+        String name = room.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String converted = (dot >= 0 ? name.substring(0, dot) : name) + "." + mConvertTo.getExtension();
+
+        Path relative = mRoot.relativize(room);
+        Path parent = relative.getParent();
+        return parent != null ? mOutput.resolve(parent).resolve(converted) : mOutput.resolve(converted);
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
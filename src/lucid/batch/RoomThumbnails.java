@@ -0,0 +1,227 @@
+package lucid.batch;
+
+import lucid.grid.TileGrid;
+import lucid.grid.TileType;
+import lucid.serialization.SerializationFormat;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Headless preview images of rooms, drawn with the {@link TileType} palette. Rooms are rendered on a pool of worker
+ * threads, and every thumbnail is kept as a PNG named after a hash of the room file's contents, so a room is only
+ * rendered again once it has changed.
+ */
+public class RoomThumbnails implements Closeable {
+
+    public static final int DEFAULT_SIZE = 128;
+
+    /**
+     * Part of every cache key. Bump it whenever thumbnails come out differently, so stale PNGs aren't reused.
+     */
+    private static final int RENDER_VERSION = 1;
+
+    private static final int HASH_BUFFER_BYTES = 1 << 16;
+
+    private static final int[] TILE_RGB = TileType.createRGBPalette();
+
+    private final Path mCacheDirectory;
+    private final int mSize;
+    private final ExecutorService mPool;
+
+    /**
+     * Thumbnails fit in size x size pixels and are cached in the directory, which is created when first needed.
+     */
+    public RoomThumbnails(Path cacheDirectory, int size, int threads) {
+        if (size < 1) throw new IllegalArgumentException("Thumbnails need at least one pixel!");
+
+        mCacheDirectory = cacheDirectory;
+        mSize = size;
+        mPool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Thumbnails");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * A room's thumbnail and where it is cached.
+     */
+    public static class Thumbnail {
+        private final BufferedImage mImage;
+        private final Path mFile;
+        private final boolean mFromCache;
+
+        private Thumbnail(BufferedImage image, Path file, boolean fromCache) {
+            mImage = image;
+            mFile = file;
+            mFromCache = fromCache;
+        }
+
+        public BufferedImage getImage() {
+            return mImage;
+        }
+
+        public Path getFile() {
+            return mFile;
+        }
+
+        /**
+         * True if the thumbnail was read from the cache rather than rendered.
+         */
+        public boolean isFromCache() {
+            return mFromCache;
+        }
+    }
+
+    /**
+     * Gets the room's thumbnail on the pool. A room that can't be read completes the future exceptionally.
+     */
+    public CompletableFuture<Thumbnail> request(Path room) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return get(room);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, mPool);
+    }
+
+    /**
+     * Gets the room's thumbnail on the calling thread, from the cache if the room hasn't changed since it was last
+     * rendered.
+     */
+    public Thumbnail get(Path room) throws IOException {
+        Path cached = mCacheDirectory.resolve(hash(room) + "-" + mSize + ".png");
+
+        if (Files.exists(cached)) {
+            BufferedImage image = ImageIO.read(cached.toFile());
+            if (image != null) return new Thumbnail(image, cached, true);
+            // Unreadable, so rendered again over it
+        }
+
+        TileGrid grid = new TileGrid(room.toFile(), SerializationFormat.detect(room.toFile()), TileType.Floor);
+        BufferedImage image = render(grid, mSize);
+
+        // Written under another name first, so no reader ever sees half a PNG
+        Files.createDirectories(mCacheDirectory);
+        Path temp = Files.createTempFile(mCacheDirectory, "thumbnail", ".tmp");
+        try {
+            ImageIO.write(image, "png", temp.toFile());
+            try {
+                Files.move(temp, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, cached, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        return new Thumbnail(image, cached, false);
+    }
+
+    @Override
+    public void close() {
+        mPool.shutdownNow();
+    }
+
+    // vvv rendering vvv
+
+    /**
+     * Draws the grid to fit in size x size pixels, keeping its aspect ratio. Small rooms get a square block of pixels
+     * per tile; large ones a pixel per square block of tiles, in the average color of the block, so thin walls still
+     * show.
+     */
+    public static BufferedImage render(TileGrid grid, int size) {
+        int width = grid.getWidth(), height = grid.getHeight();
+        int longest = Math.max(width, height);
+
+        if (longest <= size) {
+            int scale = size / longest;
+            BufferedImage image = new BufferedImage(width * scale, height * scale, BufferedImage.TYPE_INT_RGB);
+
+            int[] row = new int[width], pixels = new int[width * scale];
+            for (int y = 0; y < height; y++) {
+                grid.getTileRGB(0, y, width, 1, TILE_RGB, row, 0, width);
+                for (int x = 0; x < width; x++) {
+                    for (int i = 0; i < scale; i++) pixels[x * scale + i] = row[x];
+                }
+                for (int i = 0; i < scale; i++) {
+                    image.setRGB(0, y * scale + i, pixels.length, 1, pixels, 0, pixels.length);
+                }
+            }
+            return image;
+        }
+
+        int block = (longest + size - 1) / size;
+        int imageWidth = (width + block - 1) / block, imageHeight = (height + block - 1) / block;
+        BufferedImage image = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_RGB);
+
+        // Channel sums of the pixel row being built up, and how many tiles went into each pixel
+        int[] row = new int[width], pixels = new int[imageWidth];
+        long[] red = new long[imageWidth], green = new long[imageWidth], blue = new long[imageWidth];
+        int[] counts = new int[imageWidth];
+
+        for (int y = 0; y < height; y++) {
+            grid.getTileRGB(0, y, width, 1, TILE_RGB, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                int pixel = x / block, rgb = row[x];
+                red[pixel] += (rgb >> 16) & 0xFF;
+                green[pixel] += (rgb >> 8) & 0xFF;
+                blue[pixel] += rgb & 0xFF;
+                counts[pixel]++;
+            }
+
+            if (y % block != block - 1 && y != height - 1) continue;
+
+            for (int pixel = 0; pixel < imageWidth; pixel++) {
+                int count = counts[pixel];
+                pixels[pixel] = (int) (red[pixel] / count) << 16 | (int) (green[pixel] / count) << 8
+                        | (int) (blue[pixel] / count);
+                red[pixel] = green[pixel] = blue[pixel] = counts[pixel] = 0;
+            }
+            image.setRGB(0, y / block, imageWidth, 1, pixels, 0, imageWidth);
+        }
+
+        return image;
+    }
+
+    // vvv cache keys vvv
+
+    /**
+     * SHA-256 of the room file's bytes and the render settings, in hex.
+     */
+    private String hash(Path room) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every JVM has SHA-256!", e);
+        }
+
+        digest.update((byte) RENDER_VERSION);
+
+        byte[] buffer = new byte[HASH_BUFFER_BYTES];
+        try (InputStream in = Files.newInputStream(room)) {
+            for (int read; (read = in.read(buffer)) > 0; ) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
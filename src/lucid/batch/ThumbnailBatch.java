@@ -0,0 +1,129 @@
+package lucid.batch;
+
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Headless entry point that renders a thumbnail of every room in a directory tree, in parallel, into a cache of PNGs
+ * keyed by room contents. Rooms whose thumbnail is already cached are not loaded at all.
+ */
+public class ThumbnailBatch {
+
+    public static final String COMMAND = "thumbnails";
+
+    private static final String CACHE_DIRECTORY = ".thumbnails";
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: " + COMMAND + " <directory> [options]",
+            "  --cache <directory>  where the PNGs go (default: " + CACHE_DIRECTORY + " under the rooms)",
+            "  --size <pixels>      longest side of a thumbnail (default: " + RoomThumbnails.DEFAULT_SIZE + ")",
+            "  --threads <n>        worker threads (default: all cores)");
+
+    /**
+     * Parses the arguments, renders the thumbnails, prints a JSON summary and returns the process exit code.
+     */
+    public static int run(String[] args) {
+        Path root = null, cache = null;
+        int size = RoomThumbnails.DEFAULT_SIZE;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--cache":
+                        cache = Paths.get(args[++i]);
+                        break;
+                    case "--size":
+                        size = Integer.parseInt(args[++i]);
+                        if (size < 1) throw new IllegalArgumentException("Need at least one pixel!");
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        if (threads < 1) throw new IllegalArgumentException("Need at least one thread!");
+                        break;
+                    default:
+                        if (root != null || args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                        }
+                        root = Paths.get(args[i]);
+                }
+            }
+            if (root == null || !Files.isDirectory(root)) {
+                throw new IllegalArgumentException("Need a directory of rooms!");
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage() != null ? e.getMessage() : "Missing option value!");
+            System.err.println(USAGE);
+            return RoomBatch.EXIT_USAGE;
+        }
+
+        root = root.toAbsolutePath().normalize();
+        if (cache == null) cache = root.resolve(CACHE_DIRECTORY);
+
+        List<Path> rooms;
+        try {
+            rooms = RoomBatch.findRooms(root, cache.toAbsolutePath().normalize());
+        } catch (IOException e) {
+            System.err.println("Couldn't scan " + root + ": " + e.getMessage());
+            return RoomBatch.EXIT_FAILURES;
+        }
+
+        ThumbnailSummary summary = new ThumbnailSummary();
+        summary.files = rooms.size();
+        summary.size = size;
+        summary.threads = threads;
+
+        long start = System.nanoTime();
+        try (RoomThumbnails thumbnails = new RoomThumbnails(cache, size, threads)) {
+            List<CompletableFuture<RoomThumbnails.Thumbnail>> futures = new ArrayList<>(rooms.size());
+            for (Path room : rooms) {
+                futures.add(thumbnails.request(room));
+            }
+
+            summary.rooms = new ThumbnailSummary.RoomResult[rooms.size()];
+            for (int i = 0; i < rooms.size(); i++) {
+                summary.rooms[i] = getResult(root, rooms.get(i), futures.get(i));
+
+                if (summary.rooms[i].message != null) {
+                    summary.errors++;
+                } else if (summary.rooms[i].cached) {
+                    summary.cached++;
+                } else {
+                    summary.rendered++;
+                }
+            }
+        }
+        summary.wallMillis = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.println(new GsonBuilder().setPrettyPrinting().create().toJson(summary));
+        return summary.errors == 0 ? RoomBatch.EXIT_OK : RoomBatch.EXIT_FAILURES;
+    }
+
+    private static ThumbnailSummary.RoomResult getResult(Path root, Path room,
+                                                         CompletableFuture<RoomThumbnails.Thumbnail> future) {
+        ThumbnailSummary.RoomResult result = new ThumbnailSummary.RoomResult();
+        result.file = root.relativize(room).toString();
+
+        try {
+            RoomThumbnails.Thumbnail thumbnail = future.join();
+            result.thumbnail = thumbnail.getFile().toString();
+            result.cached = thumbnail.isFromCache();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            boolean io = cause instanceof IOException || cause instanceof UncheckedIOException;
+            result.message = io ? "I/O error: " + cause.getMessage()
+                    : cause.getClass().getSimpleName() + ": " + cause.getMessage();
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,26 @@
+package lucid.batch;
+
+/**
+ * Machine-readable result of a thumbnail run, written out as JSON.
+ */
+public class ThumbnailSummary {
+
+    public int files;
+    public int rendered;
+    public int cached;
+    public int errors;
+
+    public int size;
+    public int threads;
+    public long wallMillis;
+
+    public RoomResult[] rooms;
+
+    public static class RoomResult
+    {
+        public String file;
+        public String thumbnail;
+        public boolean cached;
+        public String message;
+    }
+}
@@ -0,0 +1,309 @@
+package lucid.grid;
+
+import lucid.serialization.IOProgress;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe autosave of the room being edited, kept in a directory as a full snapshot plus a journal of every change
+ * made since. Changes are appended as small records, so autosaving costs in proportion to the edits, not the room.
+ * Once the journal has grown larger than the snapshot, the two are compacted into a new snapshot. A room that is
+ * attached is only snapshotted once it is first edited, so until then the autosave still holds the room before it.
+ * <p>
+ * The snapshot is written by {@link RoomRecords}. The journal holds frames of the same records after its own header:
+ *
+ * <pre>
+ * journal   magic "LUCJ", version (byte), generation (long), frames
+ * </pre>
+ *
+ * The journal of the snapshot's generation lists the changes made after it, in order. A frame torn by a crash fails
+ * its checksum, and replay stops just before it.
+ * <p>
+ * Records are gathered on the EDT and handed to a single writer thread by {@link #flush()}, which also does the
+ * compaction. New snapshots are written to a temporary file and renamed into place before the journal is restarted,
+ * so there is a complete snapshot and journal pair on disk at every point.
+ */
+public class AutosaveJournal implements Closeable {
+
+    private static final int JOURNAL_MAGIC = 0x4C55434A; // "LUCJ"
+
+    private static final String SNAPSHOT_FILE = "room.snapshot";
+    private static final String JOURNAL_FILE = "room.journal";
+
+    /**
+     * Journals smaller than this are never compacted, however small the room.
+     */
+    private static final long MIN_COMPACT_BYTES = 1 << 20;
+
+    private final Path mSnapshotPath, mJournalPath;
+
+    // vvv EDT state vvv
+
+    private TileGrid mGrid;
+
+    // Starts at a random value, so this session's generations don't repeat one an earlier session left on disk: after
+    // a crash between renaming a new snapshot and restarting the journal, the old journal mustn't match the snapshot
+    private long mGeneration = ThreadLocalRandom.current().nextLong();
+
+    // Records not yet handed to the writer
+    private final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+    private final DataOutputStream mRecords = new DataOutputStream(mBytes);
+
+    // Last tile run, held back so tiles painted one after another along a row become one record
+    private int mRunStart = -1, mRunLength;
+    private byte mRunType;
+
+    // Bytes written to the journal of this generation, and the size of its snapshot
+    private long mJournalBytes;
+    private volatile long mSnapshotBytes;
+
+    // Set while the attached room hasn't been snapshotted; the snapshot is taken on its first edit
+    private boolean mSnapshotPending;
+
+    // Content hash of the room the snapshot and journal rebuild, as of the last detach; only once this session wrote one
+    private boolean mJournalOpened;
+    private long mJournaledHash;
+
+    // vvv writer thread state vvv
+
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Autosave");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private FileChannel mJournal;
+    private final CRC32 mChecksum = new CRC32();
+
+    // First failure on the writer thread, reported by the next flush()
+    private volatile IOException mFailure;
+
+    public AutosaveJournal(Path directory) {
+        mSnapshotPath = directory.resolve(SNAPSHOT_FILE);
+        mJournalPath = directory.resolve(JOURNAL_FILE);
+    }
+
+    public boolean hasAutosave() {
+        return Files.exists(mSnapshotPath);
+    }
+
+    // vvv recording vvv
+
+    /**
+     * Starts autosaving a grid, in place of the previous one. Nothing is copied or written here: the grid is
+     * snapshotted on its first edit, unless the autosave already holds it as it is now, in which case its journal
+     * simply goes on.
+     */
+    public void attach(TileGrid grid) {
+        if (mGrid != null) {
+            // The autosave holds the old room until the new one is edited, so its last changes still go out
+            writeRecords();
+            mGrid.setJournal(null);
+            mJournaledHash = mGrid.getContentHash();
+        }
+
+        mGrid = grid;
+        grid.setJournal(this);
+        mSnapshotPending = !mJournalOpened || grid.getContentHash() != mJournaledHash;
+    }
+
+    void tilesWritten(int start, int length, byte type) {
+        // The snapshot taken now already holds this change
+        if (mSnapshotPending) {
+            compact();
+            return;
+        }
+
+        if (mRunStart >= 0 && type == mRunType && start == mRunStart + mRunLength
+                && start % mGrid.getWidth() != 0) {
+            mRunLength += length;
+            return;
+        }
+
+        writePendingRun();
+        mRunStart = start;
+        mRunLength = length;
+        mRunType = type;
+    }
+
+    void metadataWritten(int index, Object metadata) {
+        if (mSnapshotPending) {
+            compact();
+            return;
+        }
+
+        writePendingRun();
+        try {
+            RoomRecords.writeMetadata(mRecords, index, metadata);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writePendingRun() {
+        if (mRunStart < 0) return;
+
+        try {
+            RoomRecords.writeRun(mRecords, mRunStart, mRunLength, mRunType);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        mRunStart = -1;
+    }
+
+    /**
+     * Hands the changes recorded since the last call to the writer thread, and compacts once the journal has
+     * outgrown the snapshot. Meant to be called every second or so. Throws if an earlier write failed.
+     */
+    public void flush() {
+        IOException failure = mFailure;
+        if (failure != null) {
+            mFailure = null;
+            throw new UncheckedIOException("Autosave failed: " + failure.getMessage(), failure);
+        }
+
+        if (mGrid == null) return;
+
+        writeRecords();
+        if (!mSnapshotPending && mJournalBytes > Math.max(mSnapshotBytes, MIN_COMPACT_BYTES)) compact();
+    }
+
+    /**
+     * Hands the records buffered so far to the writer thread.
+     */
+    private void writeRecords() {
+        writePendingRun();
+        if (mBytes.size() == 0) return;
+
+        byte[] payload = mBytes.toByteArray();
+        mBytes.reset();
+        mJournalBytes += payload.length;
+
+        mWriter.execute(() -> {
+            try {
+                if (mJournal == null) return;
+                RoomRecords.writeFrame(mJournal, mChecksum, payload, payload.length);
+                mJournal.force(false);
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+    }
+
+    /**
+     * Writes out what is left and waits, briefly, for the writer to finish.
+     */
+    @Override
+    public void close() {
+        try {
+            flush();
+        } finally {
+            if (mGrid != null) mGrid.setJournal(null);
+            mGrid = null;
+
+            mWriter.execute(this::closeJournal);
+            mWriter.shutdown();
+            try {
+                mWriter.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Replaces the snapshot and journal with a snapshot of the grid as it is now. The copy is taken here; the writing
+     * happens on the writer thread.
+     */
+    private void compact() {
+        // Records still buffered are in the copy
+        mRunStart = -1;
+        mBytes.reset();
+
+        TileGrid snapshot = mGrid.snapshot();
+        long generation = ++mGeneration;
+        mJournalBytes = 0;
+        mSnapshotPending = false;
+        mJournalOpened = true;
+
+        mWriter.execute(() -> {
+            try {
+                writeSnapshot(snapshot, generation);
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+    }
+
+    // vvv writer thread vvv
+
+    private void writeSnapshot(TileGrid grid, long generation) throws IOException {
+        Files.createDirectories(mSnapshotPath.getParent());
+        mSnapshotBytes = RoomRecords.writeSnapshot(mSnapshotPath, grid, generation, true);
+
+        // Only now is the old journal no longer needed
+        closeJournal();
+        mJournal = FileChannel.open(mJournalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(JOURNAL_MAGIC).put(RoomRecords.VERSION).putLong(generation);
+        header.flip();
+        RoomRecords.writeFully(mJournal, header);
+        mJournal.force(false);
+    }
+
+    private void closeJournal() {
+        if (mJournal == null) return;
+
+        try {
+            mJournal.close();
+        } catch (IOException e) {
+            fail(e);
+        }
+        mJournal = null;
+    }
+
+    private void fail(IOException e) {
+        if (mFailure == null) mFailure = e;
+    }
+
+    // vvv recovery vvv
+
+    /**
+     * Rebuilds the autosaved room from the snapshot and the journal that goes with it. Returns null if there is no
+     * autosave. Only reads the files, so it is safe to call off the EDT; attach the result to keep autosaving it.
+     */
+    public TileGrid recover(TileType activeTileType, IOProgress progress) throws IOException {
+        if (!hasAutosave()) return null;
+
+        RoomRecords.Snapshot snapshot = RoomRecords.readSnapshot(mSnapshotPath, activeTileType, progress);
+        TileGrid grid = snapshot.mGrid;
+
+        if (Files.exists(mJournalPath)) {
+            try (FileChannel channel = FileChannel.open(mJournalPath, StandardOpenOption.READ)) {
+                MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+                // A journal from another generation predates the snapshot, which already holds its changes
+                if (in.remaining() >= 13 && in.getInt() == JOURNAL_MAGIC && in.get() <= RoomRecords.VERSION
+                        && in.getLong() == snapshot.mGeneration) {
+                    while (in.hasRemaining() && RoomRecords.readFrame(in, grid)) {
+                        progress.update(in.position(), in.capacity());
+                    }
+                }
+            }
+        }
+
+        grid.finishReplay();
+        return grid;
+    }
+}
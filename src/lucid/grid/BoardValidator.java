@@ -0,0 +1,284 @@
+package lucid.grid;
+
+import java.util.BitSet;
+
+/**
+ * Checks that a board is closed off at its border. Every border tile must be a Wall or a Door, or a None whose
+ * region of Nones (8-connected) touches only Walls, Doors and other Nones.
+ *
+ * The validator lives alongside its grid and keeps the set of offending border tiles up to date incrementally.
+ * Edits are recorded as dirty tiles; the next query only re-floods the None regions around those tiles. A full pass,
+ * which floods each border-reachable region exactly once, is only needed after the whole grid was replaced.
+ */
+class BoardValidator {
+
+    private static final int MAX_REPORTED_TILES = 10;
+
+    /**
+     * Once more than this fraction of the board is dirty, a full pass is cheaper than re-flooding around every tile.
+     */
+    private static final int FULL_CHECK_DIVISOR = 64;
+
+    // Validity classes of tile types
+    private static final int BARRIER = 0;
+    private static final int NONE = 1;
+    private static final int OTHER = 2;
+
+    private final TileGrid mGrid;
+
+    /** Offending border tiles as of the last update. */
+    private final BitSet mInvalid = new BitSet();
+
+    private boolean mFullCheckNeeded = true;
+    private final BitSet mDirty = new BitSet();
+    private final IntQueue mDirtyTiles = new IntQueue();
+
+    private final BitSet mVisited = new BitSet();
+    private final IntQueue mVisitedTiles = new IntQueue();
+    private final IntQueue mQueue = new IntQueue();
+    private final IntQueue mRegionBorder = new IntQueue();
+
+    BoardValidator(TileGrid grid) {
+        mGrid = grid;
+    }
+
+    /**
+     * Forces the next query to re-check the entire board, e.g. after a load or a clear.
+     */
+    void invalidateAll() {
+        mFullCheckNeeded = true;
+        mDirty.clear();
+        mDirtyTiles.clear();
+    }
+
+    /**
+     * Records an edit. Changes that can't affect validity (e.g. Floor to Nest, or Wall to Door) are ignored.
+     */
+    void tileChanged(int index, TileType oldType, TileType newType) {
+        if (mFullCheckNeeded || classify(oldType) == classify(newType)) return;
+
+        // Bulk edits: stop tracking tiles one by one
+        if (mDirtyTiles.size() > mGrid.getWidth() * mGrid.getHeight() / FULL_CHECK_DIVISOR) {
+            invalidateAll();
+            return;
+        }
+
+        if (!mDirty.get(index)) {
+            mDirty.set(index);
+            mDirtyTiles.add(index);
+        }
+    }
+
+    boolean isValid() {
+        update();
+        return mInvalid.isEmpty();
+    }
+
+    int getInvalidTileCount() {
+        update();
+        return mInvalid.cardinality();
+    }
+
+    /**
+     * Returns the indices of all offending border tiles, in ascending order.
+     */
+    int[] findInvalidBorderTiles() {
+        update();
+        return mInvalid.stream().toArray();
+    }
+
+    void throwIfInvalid() throws InvalidBoardException {
+        int[] invalid = findInvalidBorderTiles();
+        if (invalid.length > 0) {
+            throw new InvalidBoardException(describe(invalid), invalid);
+        }
+    }
+
+    private void update() {
+        if (mFullCheckNeeded) {
+            checkAll();
+            mFullCheckNeeded = false;
+        } else if (!mDirtyTiles.isEmpty()) {
+            checkDirty();
+        }
+
+        mDirty.clear();
+        mDirtyTiles.clear();
+    }
+
+    private void checkAll() {
+        int width = mGrid.getWidth();
+        int height = mGrid.getHeight();
+
+        mInvalid.clear();
+        mVisited.clear();
+        mVisitedTiles.clear();
+
+        for (int y = 0; y < height; y++) {
+            // Only the first and last rows are walked fully; other rows only have their end tiles on the border
+            int step = (y == 0 || y == height - 1) ? 1 : Math.max(width - 1, 1);
+
+            for (int x = 0; x < width; x += step) {
+                checkBorderTile(x + y * width);
+            }
+        }
+
+        // Nothing to reset tile by tile after a full pass
+        mVisited.clear();
+        mVisitedTiles.clear();
+    }
+
+    /**
+     * Re-checks only the regions that contain a dirty tile or one of its neighbors. Any region an edit could have
+     * split, merged, breached or sealed has to touch the edited tile, so nothing else can have changed.
+     */
+    private void checkDirty() {
+        int width = mGrid.getWidth();
+        int height = mGrid.getHeight();
+
+        while (!mDirtyTiles.isEmpty()) {
+            int tile = mDirtyTiles.poll();
+            int tileX = tile % width;
+            int tileY = tile / width;
+
+            // Barriers are always fine and anything else never is; a None is settled by flooding its region below
+            TileType type = mGrid.getTileType(tile);
+            if (isOnBorder(tileX, tileY) && type != TileType.None) {
+                mInvalid.set(tile, classify(type) == OTHER);
+            }
+
+            // The neighborhood includes the tile itself
+            for (int y = Math.max(tileY - 1, 0); y <= Math.min(tileY + 1, height - 1); y++) {
+                for (int x = Math.max(tileX - 1, 0); x <= Math.min(tileX + 1, width - 1); x++) {
+                    int neighbor = x + y * width;
+
+                    if (mGrid.getTileType(neighbor) == TileType.None && !mVisited.get(neighbor)) {
+                        floodRegion(neighbor);
+                    }
+                }
+            }
+        }
+
+        // Only unmark what was flooded, so small edits on huge boards stay cheap
+        while (!mVisitedTiles.isEmpty()) {
+            mVisited.clear(mVisitedTiles.poll());
+        }
+    }
+
+    private void checkBorderTile(int index) {
+        switch (mGrid.getTileType(index)) {
+            case Wall:
+            case Door:
+                // Fine - continue to the next
+                break;
+            case None:
+                // Each region is only flooded from the first border tile that reaches it
+                if (!mVisited.get(index)) {
+                    floodRegion(index);
+                }
+                break;
+            default:
+                // Bad!
+                mInvalid.set(index);
+        }
+    }
+
+    /**
+     * Floods the None region containing the start tile, then marks its border tiles valid or invalid depending on
+     * whether it touches anything but Walls, Doors and Nones.
+     */
+    private void floodRegion(int start) {
+        int width = mGrid.getWidth();
+        int height = mGrid.getHeight();
+
+        boolean breached = false;
+
+        mQueue.clear();
+        mRegionBorder.clear();
+
+        visit(start);
+
+        while (!mQueue.isEmpty()) {
+            int tile = mQueue.poll();
+            int tileX = tile % width;
+            int tileY = tile / width;
+
+            if (isOnBorder(tileX, tileY)) {
+                mRegionBorder.add(tile);
+            }
+
+            for (int y = Math.max(tileY - 1, 0); y <= Math.min(tileY + 1, height - 1); y++) {
+                for (int x = Math.max(tileX - 1, 0); x <= Math.min(tileX + 1, width - 1); x++) {
+                    int neighbor = x + y * width;
+
+                    // Pass if wall; push if none, else the region is breached
+                    switch (mGrid.getTileType(neighbor)) {
+                        case Wall:
+                        case Door:
+                            break;
+                        case None:
+                            if (!mVisited.get(neighbor)) {
+                                visit(neighbor);
+                            }
+                            break;
+                        default:
+                            breached = true;
+                    }
+                }
+            }
+        }
+
+        while (!mRegionBorder.isEmpty()) {
+            mInvalid.set(mRegionBorder.poll(), breached);
+        }
+    }
+
+    private void visit(int tile) {
+        mVisited.set(tile);
+        mVisitedTiles.add(tile);
+        mQueue.add(tile);
+    }
+
+    private boolean isOnBorder(int x, int y) {
+        return x == 0 || x == mGrid.getWidth() - 1 || y == 0 || y == mGrid.getHeight() - 1;
+    }
+
+    /**
+     * Validity only depends on whether a tile is a barrier, a None, or anything else.
+     */
+    private static int classify(TileType type) {
+        switch (type) {
+            case Wall:
+            case Door:
+                return BARRIER;
+            case None:
+                return NONE;
+            default:
+                return OTHER;
+        }
+    }
+
+    private String describe(int[] invalid) {
+        StringBuilder message = new StringBuilder();
+        message.append(String.format("%d border tile(s) are invalid:", invalid.length));
+
+        for (int i = 0; i < Math.min(invalid.length, MAX_REPORTED_TILES); i++) {
+            int index = invalid[i];
+            TileType type = mGrid.getTileType(index);
+
+            message.append(System.lineSeparator());
+            if (type == TileType.None) {
+                message.append(String.format("Tile at index %d is not encased by walls!", index));
+            } else {
+                message.append(String.format("Tile at index %d contains invalid tile type %s", index, type));
+            }
+        }
+
+        if (invalid.length > MAX_REPORTED_TILES) {
+            message.append(System.lineSeparator())
+                    .append(String.format("...and %d more.", invalid.length - MAX_REPORTED_TILES));
+        }
+
+        return message.toString();
+    }
+}
@@ -0,0 +1,237 @@
+package lucid.grid;
+
+import java.util.Arrays;
+
+/**
+ * Plane split into square chunks of {@value #CHUNK_SIZE}x{@value #CHUNK_SIZE} tiles. A chunk whose tiles all share
+ * one type is stored as that single value and only gets real storage on the first write that breaks the uniformity,
+ * so mostly-empty world-scale maps cost a few bytes per chunk instead of one byte per tile.
+ */
+class ChunkedTilePlane implements TilePlane {
+
+    static final int CHUNK_SHIFT = 6;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final int mWidth, mHeight;
+    private final int mChunksX;
+
+    /** Allocated chunks, or null where the chunk is uniform. */
+    private final byte[][] mChunks;
+
+    /** Type of every tile in the chunk while it is unallocated. */
+    private final byte[] mUniform;
+
+    ChunkedTilePlane(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mChunksX = (width + CHUNK_MASK) >> CHUNK_SHIFT;
+        int chunksY = (height + CHUNK_MASK) >> CHUNK_SHIFT;
+
+        mChunks = new byte[mChunksX * chunksY][];
+        mUniform = new byte[mChunksX * chunksY];
+    }
+
+    @Override
+    public int size() {
+        return mWidth * mHeight;
+    }
+
+    @Override
+    public byte get(int index) {
+        int y = index / mWidth;
+        int x = index - y * mWidth;
+
+        int chunk = chunkOf(x, y);
+        byte[] data = mChunks[chunk];
+
+        return data == null ? mUniform[chunk] : data[offsetInChunk(x, y)];
+    }
+
+    @Override
+    public void set(int index, byte type) {
+        int y = index / mWidth;
+        int x = index - y * mWidth;
+
+        int chunk = chunkOf(x, y);
+        byte[] data = mChunks[chunk];
+
+        if (data == null) {
+            // Writing the value the chunk already holds everywhere is a no-op
+            if (mUniform[chunk] == type) return;
+
+            data = new byte[CHUNK_SIZE * CHUNK_SIZE];
+            Arrays.fill(data, mUniform[chunk]);
+            mChunks[chunk] = data;
+        }
+
+        data[offsetInChunk(x, y)] = type;
+    }
+
+    /**
+     * Scans row by row like the flat plane would, but skips the row segments of uniform chunks in one step.
+     */
+    @Override
+    public int indexOf(byte type, int from) {
+        int size = size();
+
+        for (int index = Math.max(from, 0); index < size; ) {
+            int x = index % mWidth;
+            int y = index / mWidth;
+
+            int chunk = chunkOf(x, y);
+            byte[] data = mChunks[chunk];
+
+            // The rest of this row within the chunk
+            int segmentEnd = Math.min((x | CHUNK_MASK) + 1, mWidth);
+
+            if (data == null) {
+                if (mUniform[chunk] == type) return index;
+            } else {
+                int offset = offsetInChunk(x, y);
+                for (int i = x; i < segmentEnd; i++, offset++) {
+                    if (data[offset] == type) return index + (i - x);
+                }
+            }
+
+            index += segmentEnd - x;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Writes the row one chunk-wide segment at a time, leaving uniform chunks of the same type unallocated.
+     */
+    @Override
+    public void fillRow(int from, int to, byte type) {
+        int y = from / mWidth;
+
+        for (int x = from % mWidth, end = x + (to - from); x < end; ) {
+            int chunk = chunkOf(x, y);
+            int segmentEnd = Math.min((x | CHUNK_MASK) + 1, end);
+            byte[] data = mChunks[chunk];
+
+            if (data == null) {
+                if (mUniform[chunk] == type) {
+                    x = segmentEnd;
+                    continue;
+                }
+
+                data = new byte[CHUNK_SIZE * CHUNK_SIZE];
+                Arrays.fill(data, mUniform[chunk]);
+                mChunks[chunk] = data;
+            }
+
+            int offset = offsetInChunk(x, y);
+            Arrays.fill(data, offset, offset + (segmentEnd - x), type);
+            x = segmentEnd;
+        }
+    }
+
+    /**
+     * Reads the row one chunk-wide segment at a time; a uniform chunk's segment is a single fill.
+     */
+    @Override
+    public void mapRow(int from, int to, int[] palette, int[] dest, int offset) {
+        int y = from / mWidth;
+
+        for (int x = from % mWidth, end = x + (to - from); x < end; ) {
+            int chunk = chunkOf(x, y);
+            int segmentEnd = Math.min((x | CHUNK_MASK) + 1, end);
+            byte[] data = mChunks[chunk];
+
+            if (data == null) {
+                Arrays.fill(dest, offset, offset + (segmentEnd - x), palette[mUniform[chunk]]);
+                offset += segmentEnd - x;
+            } else {
+                for (int i = offsetInChunk(x, y), last = i + (segmentEnd - x); i < last; i++) {
+                    dest[offset++] = palette[data[i]];
+                }
+            }
+
+            x = segmentEnd;
+        }
+    }
+
+    /**
+     * Copies the row one chunk-wide segment at a time; a uniform chunk's segment is a single fill.
+     */
+    @Override
+    public void copyRow(int from, int to, byte[] dest, int offset) {
+        int y = from / mWidth;
+
+        for (int x = from % mWidth, end = x + (to - from); x < end; ) {
+            int chunk = chunkOf(x, y);
+            int segmentEnd = Math.min((x | CHUNK_MASK) + 1, end);
+            byte[] data = mChunks[chunk];
+
+            if (data == null) {
+                Arrays.fill(dest, offset, offset + (segmentEnd - x), mUniform[chunk]);
+            } else {
+                System.arraycopy(data, offsetInChunk(x, y), dest, offset, segmentEnd - x);
+            }
+
+            offset += segmentEnd - x;
+            x = segmentEnd;
+        }
+    }
+
+    /**
+     * Only the allocated chunks are cloned; uniform ones are copied as their single value.
+     */
+    @Override
+    public TilePlane copy() {
+        ChunkedTilePlane copy = new ChunkedTilePlane(mWidth, mHeight);
+        System.arraycopy(mUniform, 0, copy.mUniform, 0, mUniform.length);
+        for (int chunk = 0; chunk < mChunks.length; chunk++) {
+            if (mChunks[chunk] != null) copy.mChunks[chunk] = mChunks[chunk].clone();
+        }
+        return copy;
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        long bytes = 32L + mUniform.length + mChunks.length * 8L;
+        for (byte[] data : mChunks) {
+            if (data != null) bytes += 16 + data.length;
+        }
+        return bytes;
+    }
+
+    @Override
+    public void fill(byte type) {
+        Arrays.fill(mChunks, null);
+        Arrays.fill(mUniform, type);
+    }
+
+    /**
+     * Drops the storage of every chunk that has become uniform again.
+     */
+    @Override
+    public void compact() {
+        for (int chunk = 0; chunk < mChunks.length; chunk++) {
+            byte[] data = mChunks[chunk];
+            if (data == null) continue;
+
+            byte first = data[0];
+            boolean uniform = true;
+            for (int i = 1; i < data.length && uniform; i++) {
+                uniform = data[i] == first;
+            }
+
+            if (uniform) {
+                mChunks[chunk] = null;
+                mUniform[chunk] = first;
+            }
+        }
+    }
+
+    private int chunkOf(int x, int y) {
+        return (x >> CHUNK_SHIFT) + (y >> CHUNK_SHIFT) * mChunksX;
+    }
+
+    private static int offsetInChunk(int x, int y) {
+        return (x & CHUNK_MASK) | ((y & CHUNK_MASK) << CHUNK_SHIFT);
+    }
+}
@@ -0,0 +1,98 @@
+package lucid.grid;
+
+/**
+ * Zobrist-style keys for the 64-bit content hash of a {@link TileGrid}. The hash of a room is the XOR of the key of
+ * its dimensions, the key of every (tile index, type) pair and the key of every piece of metadata, so changing one
+ * tile or one piece of metadata only takes XORing out its old key and XORing in the new one.
+ * <p>
+ * Keys are computed rather than looked up in a table, which would need a random number per tile and type. Floor
+ * tiles have key 0, so the mostly-floor rooms of the editor are hashed from scratch without mixing every tile.
+ * Metadata holding only the default values has key 0 as well, so it hashes the same as no metadata at all, which is
+ * how the grid treats it too.
+ */
+final class ContentHash {
+
+    private static final long DIMENSIONS_SEED = 0x6A09E667F3BCC908L;
+    private static final long TILE_SEED = 0xBB67AE8584CAA73BL;
+    private static final long METADATA_SEED = 0x3C6EF372FE94F82BL;
+
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    private static final byte FLOOR = TileType.Floor.toOrdinal();
+
+    private static final int NEST = 1, POI = 2, DOOR = 3;
+
+    private static final long DEFAULT_NEST = contentOf(new Tile.Nest());
+    private static final long DEFAULT_POI = contentOf(new Tile.POI());
+    private static final long DEFAULT_DOOR = contentOf(new Tile.Door());
+
+    private ContentHash() {}
+
+    static long ofDimensions(int width, int height) {
+        return mix(((long) width << 32 | height & 0xFFFFFFFFL) + DIMENSIONS_SEED);
+    }
+
+    static long ofTile(int index, byte type) {
+        if (type == FLOOR) return 0;
+        return mix(((long) index << 4 | type) + TILE_SEED);
+    }
+
+    /**
+     * Key of a piece of metadata on a tile, or 0 for null and for metadata holding the default values.
+     */
+    static long ofMetadata(int index, Object metadata) {
+        if (metadata == null) return 0;
+
+        int kind;
+        long content = contentOf(metadata), defaultContent;
+        if (metadata instanceof Tile.Nest) {
+            kind = NEST;
+            defaultContent = DEFAULT_NEST;
+        } else if (metadata instanceof Tile.POI) {
+            kind = POI;
+            defaultContent = DEFAULT_POI;
+        } else {
+            kind = DOOR;
+            defaultContent = DEFAULT_DOOR;
+        }
+
+        if (content == defaultContent) return 0;
+        return mix(mix(((long) index << 2 | kind) + METADATA_SEED) ^ content);
+    }
+
+    private static long contentOf(Object metadata) {
+        if (metadata instanceof Tile.Nest) {
+            Tile.Nest nest = (Tile.Nest) metadata;
+            long hash = FNV_OFFSET;
+            hash = addString(hash, nest.spawnRadius);
+            hash = addString(hash, nest.spawnChance);
+            hash = addString(hash, nest.spawnAttemptsMin);
+            return addString(hash, nest.spawnAttemptsMax);
+        } else if (metadata instanceof Tile.POI) {
+            return addString(FNV_OFFSET, ((Tile.POI) metadata).type);
+        } else if (metadata instanceof Tile.Door) {
+            return addString(FNV_OFFSET, ((Tile.Door) metadata).direction);
+        }
+        throw new IllegalArgumentException("Not tile metadata: " + metadata);
+    }
+
+    /**
+     * FNV-1a over the characters, then the length, so consecutive strings can't run into each other.
+     */
+    private static long addString(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return (hash ^ value.length()) * FNV_PRIME;
+    }
+
+    /**
+     * The SplitMix64 finalizer: every input bit affects every output bit.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,329 @@
+package lucid.grid;
+
+import java.util.Arrays;
+
+/**
+ * Undo/redo log of a {@link TileGrid}. Each entry is the delta of one user edit: runs of neighboring tiles in a row
+ * that went from one type to another, plus the nest, POI and door metadata the edit threw away or replaced. Nothing
+ * is ever copied from the rest of the grid, so an entry costs memory in proportion to what the edit changed.
+ *
+ * Entries live in a fixed-size ring buffer; the oldest ones are evicted when it is full or when the log goes over
+ * its memory budget. An edit too large for the budget on its own is not kept, and since older entries can no longer
+ * be replayed in order past it, the log is emptied.
+ */
+class EditHistory {
+
+    static final long DEFAULT_BUDGET_BYTES = 64L * 1024 * 1024;
+    static final int CAPACITY = 256;
+
+    private final TileGrid mGrid;
+
+    private final Entry[] mEntries = new Entry[CAPACITY];
+    private int mHead, mSize;
+
+    // Entries before the cursor can be undone, the ones after it redone
+    private int mCursor;
+
+    private long mBytes, mBudget = DEFAULT_BUDGET_BYTES;
+
+    // The edit being recorded, and how deeply beginEdit() calls are nested
+    private Entry mOpen;
+    private int mDepth;
+    private boolean mOverflowed;
+
+    // The entry being undone, which collects the metadata its undo throws away so a redo can put it back
+    private Entry mUndoing;
+
+    EditHistory(TileGrid grid) {
+        mGrid = grid;
+    }
+
+    // vvv recording vvv
+
+    void beginEdit() {
+        if (mDepth++ == 0) {
+            mOpen = new Entry();
+            mOverflowed = false;
+        }
+    }
+
+    void endEdit() {
+        if (mDepth == 0) throw new IllegalStateException("endEdit() without beginEdit()!");
+        if (--mDepth > 0) return;
+
+        Entry entry = mOpen;
+        mOpen = null;
+
+        if (mOverflowed) {
+            clear();
+            return;
+        }
+
+        if (entry.isEmpty()) return;
+
+        entry.trim();
+        push(entry);
+    }
+
+    boolean isEditing() {
+        return mDepth > 0;
+    }
+
+    /**
+     * True if the newest undo step only changed the metadata of this tile and nothing came after it. Further changes
+     * to the same tile can then fold into that step.
+     */
+    boolean isLastMetadataEdit(int index) {
+        if (mCursor == 0 || mCursor < mSize) return false;
+
+        Entry last = get(mCursor - 1);
+        return last.mRuns == 0 && last.mBefore.size() == 1 && last.mBefore.getIndex(0) == index;
+    }
+
+    /**
+     * Records that length tiles from start on, all in one row, went from oldType to newType.
+     */
+    void tilesChanged(int start, int length, byte oldType, byte newType) {
+        if (mOpen == null || mOverflowed) return;
+
+        mOpen.addRun(start, length, oldType, newType, mGrid.getWidth());
+        if (mOpen.getBytes() > mBudget) {
+            // Stop recording now rather than hold on to a delta that will be thrown away anyway
+            mOverflowed = true;
+            mOpen = new Entry();
+        }
+    }
+
+    /**
+     * Records the metadata a tile had before an edit removed or replaced it.
+     */
+    void metadataChanged(int index, Object metadata) {
+        if (mOpen != null && !mOverflowed) {
+            mOpen.mBefore.add(index, metadata);
+        } else if (mUndoing != null) {
+            mUndoing.mAfter.add(index, metadata);
+        }
+    }
+
+    // vvv undo and redo vvv
+
+    boolean canUndo() {
+        return mCursor > 0;
+    }
+
+    boolean canRedo() {
+        return mCursor < mSize;
+    }
+
+    /**
+     * Hands out the entry to undo and moves the cursor back over it. The caller writes the old types back, during
+     * which any metadata removed is recorded for the redo.
+     */
+    Entry startUndo() {
+        if (!canUndo()) return null;
+
+        mCursor--;
+        Entry entry = get(mCursor);
+
+        mBytes -= entry.getBytes();
+        entry.mAfter.clear();
+        mUndoing = entry;
+
+        return entry;
+    }
+
+    void finishUndo() {
+        mBytes += mUndoing.getBytes();
+        mUndoing = null;
+    }
+
+    Entry startRedo() {
+        if (!canRedo()) return null;
+
+        return get(mCursor++);
+    }
+
+    // vvv budget vvv
+
+    void setBudget(long bytes) {
+        mBudget = Math.max(bytes, 0);
+        evict();
+    }
+
+    long getBytes() {
+        return mBytes;
+    }
+
+    void clear() {
+        Arrays.fill(mEntries, null);
+        mHead = mSize = mCursor = 0;
+        mBytes = 0;
+    }
+
+    private void push(Entry entry) {
+        // A new edit forks history: whatever could have been redone is gone
+        while (mSize > mCursor) {
+            mSize--;
+            int slot = (mHead + mSize) % CAPACITY;
+            mBytes -= mEntries[slot].getBytes();
+            mEntries[slot] = null;
+        }
+
+        if (mSize == CAPACITY) evictOldest();
+
+        mEntries[(mHead + mSize) % CAPACITY] = entry;
+        mSize++;
+        mCursor++;
+        mBytes += entry.getBytes();
+
+        evict();
+    }
+
+    private void evict() {
+        while (mSize > 0 && mBytes > mBudget) {
+            evictOldest();
+        }
+    }
+
+    private void evictOldest() {
+        mBytes -= mEntries[mHead].getBytes();
+        mEntries[mHead] = null;
+        mHead = (mHead + 1) % CAPACITY;
+        mSize--;
+        mCursor = Math.max(mCursor - 1, 0);
+    }
+
+    private Entry get(int position) {
+        return mEntries[(mHead + position) % CAPACITY];
+    }
+
+    /**
+     * One undoable edit.
+     */
+    static class Entry {
+
+        // Fixed cost of an entry and its arrays, and the rough size of a metadata object and its strings
+        private static final int OVERHEAD_BYTES = 128;
+        private static final int METADATA_BYTES = 96;
+
+        // Run r covers tiles mStarts[r] to mStarts[r] + mLengths[r] - 1, all in one row
+        private int[] mStarts = new int[16], mLengths = new int[16];
+        private byte[] mOldTypes = new byte[16], mNewTypes = new byte[16];
+        private int mRuns;
+
+        // First index past the row of the last run, so runs never wrap onto the next row
+        private int mRowEnd;
+
+        /** Metadata removed or replaced by the edit itself, put back on undo. */
+        final MetadataList mBefore = new MetadataList();
+
+        /** Metadata removed or replaced by the last undo, put back on redo. */
+        final MetadataList mAfter = new MetadataList();
+
+        int getRunCount() {
+            return mRuns;
+        }
+
+        int getStart(int run) {
+            return mStarts[run];
+        }
+
+        int getLength(int run) {
+            return mLengths[run];
+        }
+
+        byte getOldType(int run) {
+            return mOldTypes[run];
+        }
+
+        byte getNewType(int run) {
+            return mNewTypes[run];
+        }
+
+        boolean isEmpty() {
+            return mRuns == 0 && mBefore.size() == 0;
+        }
+
+        long getBytes() {
+            return OVERHEAD_BYTES + mStarts.length * 10L + (long) (mBefore.size() + mAfter.size()) * METADATA_BYTES;
+        }
+
+        private void addRun(int start, int length, byte oldType, byte newType, int width) {
+            // Extend the last run if this one continues it in the same row with the same change
+            if (mRuns > 0) {
+                int last = mRuns - 1;
+                if (mStarts[last] + mLengths[last] == start && start < mRowEnd
+                        && mOldTypes[last] == oldType && mNewTypes[last] == newType) {
+                    mLengths[last] += length;
+                    return;
+                }
+            }
+
+            if (mRuns == mStarts.length) resize(mRuns * 2);
+
+            mRowEnd = (start / width + 1) * width;
+
+            mStarts[mRuns] = start;
+            mLengths[mRuns] = length;
+            mOldTypes[mRuns] = oldType;
+            mNewTypes[mRuns] = newType;
+            mRuns++;
+        }
+
+        private void trim() {
+            resize(mRuns);
+            mBefore.trim();
+        }
+
+        private void resize(int capacity) {
+            mStarts = Arrays.copyOf(mStarts, capacity);
+            mLengths = Arrays.copyOf(mLengths, capacity);
+            mOldTypes = Arrays.copyOf(mOldTypes, capacity);
+            mNewTypes = Arrays.copyOf(mNewTypes, capacity);
+        }
+    }
+
+    /**
+     * Tile indices paired with the metadata objects that were taken off them.
+     */
+    static class MetadataList {
+
+        private int[] mIndices = new int[0];
+        private Object[] mValues = new Object[0];
+        private int mSize;
+
+        int size() {
+            return mSize;
+        }
+
+        int getIndex(int i) {
+            return mIndices[i];
+        }
+
+        Object getValue(int i) {
+            return mValues[i];
+        }
+
+        void add(int index, Object value) {
+            if (mSize == mIndices.length) {
+                int capacity = Math.max(4, mSize * 2);
+                mIndices = Arrays.copyOf(mIndices, capacity);
+                mValues = Arrays.copyOf(mValues, capacity);
+            }
+
+            mIndices[mSize] = index;
+            mValues[mSize] = value;
+            mSize++;
+        }
+
+        void clear() {
+            Arrays.fill(mValues, 0, mSize, null);
+            mSize = 0;
+        }
+
+        private void trim() {
+            mIndices = Arrays.copyOf(mIndices, mSize);
+            mValues = Arrays.copyOf(mValues, mSize);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package lucid.grid;
+
+/**
+ * Growable FIFO ring buffer of primitive ints, so searches over the grid don't box every tile index.
+ */
+class IntQueue {
+
+    private int[] mData;
+    private int mHead, mSize;
+
+    IntQueue() {
+        this(64);
+    }
+
+    IntQueue(int capacity) {
+        // Keep the capacity a power of two so wrapping is a mask
+        mData = new int[Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1];
+    }
+
+    void add(int value) {
+        if (mSize == mData.length) grow();
+
+        mData[(mHead + mSize) & (mData.length - 1)] = value;
+        mSize++;
+    }
+
+    int poll() {
+        if (mSize == 0) throw new IllegalStateException("poll() on an empty IntQueue!");
+
+        int value = mData[mHead];
+        mHead = (mHead + 1) & (mData.length - 1);
+        mSize--;
+
+        return value;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    void clear() {
+        mHead = 0;
+        mSize = 0;
+    }
+
+    private void grow() {
+        int[] data = new int[mData.length << 1];
+
+        // Unwrap the ring into the front of the new array
+        int firstPart = Math.min(mSize, mData.length - mHead);
+        System.arraycopy(mData, mHead, data, 0, firstPart);
+        System.arraycopy(mData, 0, data, firstPart, mSize - firstPart);
+
+        mData = data;
+        mHead = 0;
+    }
+}
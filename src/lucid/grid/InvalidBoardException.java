@@ -0,0 +1,19 @@
+package lucid.grid;
+
+/**
+ * Thrown when a board can't be saved because some of its border tiles are not properly closed off. Carries every
+ * offending index rather than just the first one found.
+ */
+public class InvalidBoardException extends RuntimeException {
+
+    private final int[] mInvalidIndices;
+
+    public InvalidBoardException(String message, int[] invalidIndices) {
+        super(message);
+        mInvalidIndices = invalidIndices;
+    }
+
+    public int[] getInvalidIndices() {
+        return mInvalidIndices.clone();
+    }
+}
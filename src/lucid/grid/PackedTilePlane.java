@@ -0,0 +1,74 @@
+package lucid.grid;
+
+import java.util.Arrays;
+
+/**
+ * Flat plane of one byte per tile. Used for all but very large grids.
+ */
+class PackedTilePlane implements TilePlane {
+
+    private final byte[] mTypes;
+
+    PackedTilePlane(int size) {
+        mTypes = new byte[size];
+    }
+
+    private PackedTilePlane(byte[] types) {
+        mTypes = types;
+    }
+
+    @Override
+    public int size() {
+        return mTypes.length;
+    }
+
+    @Override
+    public byte get(int index) {
+        return mTypes[index];
+    }
+
+    @Override
+    public void set(int index, byte type) {
+        mTypes[index] = type;
+    }
+
+    @Override
+    public int indexOf(byte type, int from) {
+        for (int index = from; index < mTypes.length; index++) {
+            if (mTypes[index] == type) return index;
+        }
+        return -1;
+    }
+
+    @Override
+    public void fillRow(int from, int to, byte type) {
+        Arrays.fill(mTypes, from, to, type);
+    }
+
+    @Override
+    public void mapRow(int from, int to, int[] palette, int[] dest, int offset) {
+        for (int index = from; index < to; index++) {
+            dest[offset++] = palette[mTypes[index]];
+        }
+    }
+
+    @Override
+    public void copyRow(int from, int to, byte[] dest, int offset) {
+        System.arraycopy(mTypes, from, dest, offset, to - from);
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        return 16L + mTypes.length;
+    }
+
+    @Override
+    public void fill(byte type) {
+        Arrays.fill(mTypes, type);
+    }
+
+    @Override
+    public TilePlane copy() {
+        return new PackedTilePlane(mTypes.clone());
+    }
+}
@@ -0,0 +1,368 @@
+package lucid.grid;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Works out which tiles of a board can be reached from its doors, and how many steps away they are. Players walk
+ * four ways across Floor and through Doors. Nests, treasure, POIs and portals are reached by stepping onto them but
+ * can't be walked through, and everything else blocks.
+ *
+ * Distances come from one breadth-first search out of every door at once. Like the {@link BoardValidator}, the
+ * analyzer lives alongside its grid and hears about every edit that changes how a tile can be walked; the next query
+ * only throws away the distances that could have leaned on an edited tile and works them out again from around them.
+ * Nothing is allocated until the first query.
+ */
+class ReachabilityAnalyzer {
+
+    static final int UNREACHABLE = -1;
+
+    // A distance thrown away by a repair and not worked out again yet
+    private static final int UNKNOWN = -2;
+
+    /**
+     * Once more than this fraction of the board was edited, searching it all again is cheaper than repairing.
+     */
+    private static final int FULL_SEARCH_DIVISOR = 64;
+
+    // Movement classes of tile types; only the walkable ones lead on to their neighbors
+    private static final int BLOCKED = 0;
+    private static final int TARGET = 1;
+    private static final int WALKABLE = 2;
+    private static final int SOURCE = 3;
+
+    private static final TileType[] TARGETS = {TileType.Nest, TileType.Treasure, TileType.POI, TileType.Portal};
+
+    private final TileGrid mGrid;
+
+    /** Steps from the nearest door by tile index, or UNREACHABLE; null until the first query. */
+    private int[] mDistances;
+
+    private boolean mFullSearchNeeded = true;
+    private final IntQueue mDirtyTiles = new IntQueue();
+
+    private final IntQueue mQueue = new IntQueue();
+    private final IntQueue mReset = new IntQueue();
+
+    // Worked out when first asked for after a change; -1 and null while unknown
+    private int mMaxDistance = -1;
+    private int[] mDisconnectedDoors;
+
+    ReachabilityAnalyzer(TileGrid grid) {
+        mGrid = grid;
+    }
+
+    /**
+     * Forces the next query to search the entire board, e.g. after a load.
+     */
+    void invalidateAll() {
+        mFullSearchNeeded = true;
+        mDirtyTiles.clear();
+    }
+
+    /**
+     * Records an edit. Changes that leave the tile walkable the same way (e.g. Wall to Lava) are ignored.
+     */
+    void tileChanged(int index, TileType oldType, TileType newType) {
+        if (mFullSearchNeeded || classify(oldType) == classify(newType)) return;
+
+        if (mDirtyTiles.size() > mDistances.length / FULL_SEARCH_DIVISOR) {
+            invalidateAll();
+            return;
+        }
+
+        mDirtyTiles.add(index);
+    }
+
+    int getDistance(int index) {
+        update();
+        return mDistances[index];
+    }
+
+    int getMaxDistance() {
+        update();
+
+        if (mMaxDistance < 0) {
+            mMaxDistance = 0;
+            for (int distance : mDistances) {
+                mMaxDistance = Math.max(mMaxDistance, distance);
+            }
+        }
+        return mMaxDistance;
+    }
+
+    /**
+     * Nests, treasure, POIs and portals that no door reaches, in ascending order.
+     */
+    int[] findUnreachableTargets() {
+        update();
+
+        IntQueue found = new IntQueue();
+        for (TileType target : TARGETS) {
+            for (int index = mGrid.nextIndexOfType(0, target); index >= 0;
+                 index = mGrid.nextIndexOfType(index + 1, target)) {
+                if (mDistances[index] == UNREACHABLE) found.add(index);
+            }
+        }
+
+        int[] unreachable = new int[found.size()];
+        for (int i = 0; i < unreachable.length; i++) {
+            unreachable[i] = found.poll();
+        }
+        Arrays.sort(unreachable);
+        return unreachable;
+    }
+
+    /**
+     * Doors that can't be walked to from the first door, in ascending order. Empty when every door reaches every
+     * other one.
+     */
+    int[] findDisconnectedDoors() {
+        update();
+
+        if (mDisconnectedDoors == null) mDisconnectedDoors = searchDisconnectedDoors();
+        return mDisconnectedDoors.clone();
+    }
+
+    long getMemoryBytes() {
+        return mDistances != null ? 16L + mDistances.length * 4L : 0;
+    }
+
+    private void update() {
+        if (mFullSearchNeeded || mDistances == null) {
+            searchAll();
+            mFullSearchNeeded = false;
+        } else if (!mDirtyTiles.isEmpty()) {
+            repair();
+        } else {
+            return;
+        }
+
+        mDirtyTiles.clear();
+        mMaxDistance = -1;
+        mDisconnectedDoors = null;
+    }
+
+    // vvv distance field vvv
+
+    private void searchAll() {
+        int size = mGrid.getWidth() * mGrid.getHeight();
+        if (mDistances == null || mDistances.length != size) mDistances = new int[size];
+        Arrays.fill(mDistances, UNREACHABLE);
+
+        mQueue.clear();
+        for (int door = mGrid.nextIndexOfType(0, TileType.Door); door >= 0;
+             door = mGrid.nextIndexOfType(door + 1, TileType.Door)) {
+            mDistances[door] = 0;
+            mQueue.add(door);
+        }
+
+        spread();
+    }
+
+    /**
+     * Brings the distances up to date after edits. Only tiles downstream of an edited one, whose distance is one more
+     * than a neighbor's that was thrown away, can have got further from the doors; they are thrown away too and seeded
+     * again from their neighbors. Tiles that got closer are found by spreading out from the seeds.
+     */
+    private void repair() {
+        mReset.clear();
+
+        while (!mDirtyTiles.isEmpty()) {
+            int tile = mDirtyTiles.poll();
+
+            if (mDistances[tile] >= 0) {
+                resetDownstream(tile);
+            } else if (mDistances[tile] == UNREACHABLE) {
+                mDistances[tile] = UNKNOWN;
+                mReset.add(tile);
+            }
+        }
+
+        // Each reset tile is put back at the end of the queue, so it is still all there for the cleanup
+        mQueue.clear();
+        for (int i = 0, count = mReset.size(); i < count; i++) {
+            int tile = mReset.poll();
+            seed(tile);
+            mReset.add(tile);
+        }
+
+        spread();
+
+        // Whatever wasn't reached again can't be reached at all
+        while (!mReset.isEmpty()) {
+            int tile = mReset.poll();
+            if (mDistances[tile] == UNKNOWN) mDistances[tile] = UNREACHABLE;
+        }
+    }
+
+    /**
+     * Throws away the distance of the tile and of every tile a shortest path may have reached through it.
+     */
+    private void resetDownstream(int start) {
+        int width = mGrid.getWidth(), height = mGrid.getHeight();
+
+        mQueue.clear();
+        mQueue.add(start);
+
+        while (!mQueue.isEmpty()) {
+            int tile = mQueue.poll();
+            int distance = mDistances[tile];
+
+            // Reached twice, and already thrown away the first time
+            if (distance < 0) continue;
+
+            int x = tile % width, y = tile / width;
+            if (x > 0 && mDistances[tile - 1] == distance + 1) mQueue.add(tile - 1);
+            if (x < width - 1 && mDistances[tile + 1] == distance + 1) mQueue.add(tile + 1);
+            if (y > 0 && mDistances[tile - width] == distance + 1) mQueue.add(tile - width);
+            if (y < height - 1 && mDistances[tile + width] == distance + 1) mQueue.add(tile + width);
+
+            mDistances[tile] = UNKNOWN;
+            mReset.add(tile);
+        }
+    }
+
+    /**
+     * Gives a reset tile the distance it gets from its walkable neighbors that still have one, and queues it.
+     */
+    private void seed(int tile) {
+        int kind = classOf(tile);
+        if (kind == BLOCKED) {
+            mDistances[tile] = UNREACHABLE;
+            return;
+        }
+        if (kind == SOURCE) {
+            mDistances[tile] = 0;
+            mQueue.add(tile);
+            return;
+        }
+
+        int width = mGrid.getWidth(), height = mGrid.getHeight();
+        int x = tile % width, y = tile / width;
+
+        int best = Integer.MAX_VALUE;
+        if (x > 0) best = Math.min(best, getStepFrom(tile - 1));
+        if (x < width - 1) best = Math.min(best, getStepFrom(tile + 1));
+        if (y > 0) best = Math.min(best, getStepFrom(tile - width));
+        if (y < height - 1) best = Math.min(best, getStepFrom(tile + width));
+
+        if (best != Integer.MAX_VALUE) {
+            mDistances[tile] = best;
+            mQueue.add(tile);
+        }
+    }
+
+    /**
+     * The distance a step from the neighbor gives, or Integer.MAX_VALUE if there is no stepping on from it.
+     */
+    private int getStepFrom(int neighbor) {
+        int distance = mDistances[neighbor];
+        return distance >= 0 && classOf(neighbor) >= WALKABLE ? distance + 1 : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Breadth-first from the queued tiles, lowering every distance a step from a walkable tile improves on.
+     */
+    private void spread() {
+        int width = mGrid.getWidth(), height = mGrid.getHeight();
+
+        while (!mQueue.isEmpty()) {
+            int tile = mQueue.poll();
+            if (classOf(tile) < WALKABLE) continue;
+
+            int next = mDistances[tile] + 1;
+            int x = tile % width, y = tile / width;
+            if (x > 0) relax(tile - 1, next);
+            if (x < width - 1) relax(tile + 1, next);
+            if (y > 0) relax(tile - width, next);
+            if (y < height - 1) relax(tile + width, next);
+        }
+    }
+
+    private void relax(int tile, int distance) {
+        int current = mDistances[tile];
+        if (current >= 0 && current <= distance) return;
+        if (classOf(tile) == BLOCKED) return;
+
+        mDistances[tile] = distance;
+        mQueue.add(tile);
+    }
+
+    // vvv doors vvv
+
+    /**
+     * Floods the walkable tiles from the first door, stopping as soon as every door was found.
+     */
+    private int[] searchDisconnectedDoors() {
+        int first = mGrid.nextIndexOfType(0, TileType.Door);
+        if (first < 0) return new int[0];
+
+        int doors = 0;
+        for (int door = first; door >= 0; door = mGrid.nextIndexOfType(door + 1, TileType.Door)) {
+            doors++;
+        }
+
+        int width = mGrid.getWidth(), height = mGrid.getHeight();
+        BitSet visited = new BitSet();
+        IntQueue queue = new IntQueue();
+
+        visited.set(first);
+        queue.add(first);
+        int found = 1;
+
+        while (!queue.isEmpty() && found < doors) {
+            int tile = queue.poll();
+            int x = tile % width, y = tile / width;
+
+            if (x > 0) found += visitWalkable(tile - 1, visited, queue);
+            if (x < width - 1) found += visitWalkable(tile + 1, visited, queue);
+            if (y > 0) found += visitWalkable(tile - width, visited, queue);
+            if (y < height - 1) found += visitWalkable(tile + width, visited, queue);
+        }
+
+        int[] disconnected = new int[doors - found];
+        int count = 0;
+        for (int door = first; door >= 0 && count < disconnected.length;
+             door = mGrid.nextIndexOfType(door + 1, TileType.Door)) {
+            if (!visited.get(door)) disconnected[count++] = door;
+        }
+        return disconnected;
+    }
+
+    /**
+     * Queues the tile if it is walkable and new to the search. Returns 1 if it is a door, so it can be counted.
+     */
+    private int visitWalkable(int tile, BitSet visited, IntQueue queue) {
+        if (visited.get(tile)) return 0;
+
+        int kind = classOf(tile);
+        if (kind < WALKABLE) return 0;
+
+        visited.set(tile);
+        queue.add(tile);
+        return kind == SOURCE ? 1 : 0;
+    }
+
+    // vvv classes vvv
+
+    private int classOf(int tile) {
+        return classify(mGrid.getTileType(tile));
+    }
+
+    private static int classify(TileType type) {
+        switch (type) {
+            case Floor:
+                return WALKABLE;
+            case Door:
+                return SOURCE;
+            case Nest:
+            case Treasure:
+            case POI:
+            case Portal:
+                return TARGET;
+            default:
+                return BLOCKED;
+        }
+    }
+}
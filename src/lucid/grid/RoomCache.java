@@ -0,0 +1,352 @@
+package lucid.grid;
+
+import lucid.serialization.IOProgress;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * The rooms open in the editor, kept in memory up to a budget. Once the resident rooms go over it, the least recently
+ * used ones are spilled to a temporary directory in the room record format and dropped; getting one back reads the
+ * spill file, which is much faster than parsing a save. The most recently used room is never spilled. Spilling
+ * keeps the tiles and metadata of a room but not its undo history.
+ * <p>
+ * Not thread-safe: meant to be used from the EDT only. Loads, spills and prefetches run one at a time on a
+ * background thread, in the order they were asked for, so a room is never read back before its spill is written.
+ * A room that can't be spilled stays in memory, and the failure is reported by the next {@link #checkSpills()}.
+ */
+public class RoomCache<K> implements Closeable {
+
+    private static final String SPILL_PREFIX = "lucid-rooms";
+
+    // Access-ordered, so iteration runs from the least to the most recently used room
+    private final Map<K, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long mBudget;
+
+    private final ExecutorService mWorker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Room cache");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // vvv worker thread state vvv
+
+    private Path mSpillDirectory;
+    private int mSpillCount;
+
+    // First spill failure on the worker thread, reported by the next checkSpills()
+    private volatile IOException mFailure;
+
+    public RoomCache() {
+        this(Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    public RoomCache(long budgetBytes) {
+        mBudget = budgetBytes;
+    }
+
+    /**
+     * A room in the cache: either resident, or a way to get it back.
+     */
+    private class Entry {
+        TileGrid mGrid;
+
+        // Estimated size when last resident, or 0 if it never was
+        long mBytes;
+
+        Callable<TileGrid> mLoader;
+        Spill mSpill;
+
+        // Load in progress, if any
+        Future<TileGrid> mPending;
+    }
+
+    // vvv rooms vvv
+
+    /**
+     * Adds a room that is already in memory and makes it the most recently used one.
+     */
+    public void add(K key, TileGrid grid) {
+        remove(key);
+
+        Entry entry = new Entry();
+        entry.mGrid = grid;
+        entry.mBytes = grid.getMemoryBytes();
+        mEntries.put(key, entry);
+
+        evict();
+    }
+
+    /**
+     * Adds a room that is only loaded, on the worker thread, when it is first asked for.
+     */
+    public void add(K key, Callable<TileGrid> loader) {
+        remove(key);
+
+        Entry entry = new Entry();
+        entry.mLoader = loader;
+        mEntries.put(key, entry);
+    }
+
+    public boolean contains(K key) {
+        return mEntries.containsKey(key);
+    }
+
+    /**
+     * Forgets a room, deleting its spill file if it has one. A load in progress still finishes but is thrown away.
+     */
+    public void remove(K key) {
+        Entry entry = mEntries.remove(key);
+        if (entry == null || entry.mSpill == null) return;
+
+        Spill spill = entry.mSpill;
+        mWorker.execute(spill::delete);
+    }
+
+    /**
+     * Returns the room if it is in memory, making it the most recently used one; null otherwise.
+     */
+    public TileGrid getIfResident(K key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) return null;
+
+        install(entry);
+        if (entry.mGrid != null) evict();
+        return entry.mGrid;
+    }
+
+    public boolean isResident(K key) {
+        Entry entry = mEntries.get(key);
+        return entry != null && entry.mGrid != null;
+    }
+
+    /**
+     * Starts bringing a room back into memory, if it isn't there already. Once the future is done, the room is
+     * picked up by {@link #getIfResident(Object)}.
+     */
+    public Future<TileGrid> load(K key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) throw new IllegalArgumentException("Room is not open: " + key);
+
+        return startLoad(entry);
+    }
+
+    /**
+     * Loads a room ahead of time if, as far as is known, it fits in the budget next to the resident ones. Doesn't
+     * change the order in which rooms are spilled.
+     */
+    public void prefetch(K key) {
+        installFinished();
+
+        Entry entry = null;
+        for (Map.Entry<K, Entry> candidate : mEntries.entrySet()) {
+            if (candidate.getKey().equals(key)) entry = candidate.getValue();
+        }
+        if (entry == null || entry.mGrid != null || entry.mPending != null) return;
+
+        if (getResidentBytes() + entry.mBytes <= mBudget) startLoad(entry);
+    }
+
+    /**
+     * Throws if a spill failed since the last call. The room that couldn't be spilled is still in memory, so nothing
+     * is lost; meant to be called every so often from the EDT.
+     */
+    public void checkSpills() {
+        IOException failure = mFailure;
+        if (failure != null) {
+            mFailure = null;
+            throw new UncheckedIOException("Could not spill a room, keeping it in memory: " + failure.getMessage(),
+                    failure);
+        }
+    }
+
+    // vvv budget vvv
+
+    public void setBudget(long bytes) {
+        mBudget = Math.max(bytes, 0);
+        evict();
+    }
+
+    public long getBudget() {
+        return mBudget;
+    }
+
+    /**
+     * Estimated memory held by the rooms in memory. Measured afresh, since the rooms change as they are edited.
+     */
+    public long getResidentBytes() {
+        long bytes = 0;
+        for (Entry entry : mEntries.values()) {
+            if (entry.mGrid == null) continue;
+
+            entry.mBytes = entry.mGrid.getMemoryBytes();
+            bytes += entry.mBytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * Spills the least recently used rooms, but never the most recently used one, until the rest fit in the budget.
+     */
+    private void evict() {
+        installFinished();
+
+        long bytes = getResidentBytes();
+        if (bytes <= mBudget) return;
+
+        Iterator<Entry> entries = mEntries.values().iterator();
+        for (int remaining = mEntries.size(); remaining > 1 && bytes > mBudget; remaining--) {
+            Entry entry = entries.next();
+            if (entry.mGrid == null) continue;
+
+            bytes -= entry.mBytes;
+            spill(entry);
+        }
+    }
+
+    private void spill(Entry entry) {
+        TileGrid grid = entry.mGrid;
+        entry.mGrid = null;
+
+        if (entry.mSpill == null) entry.mSpill = new Spill();
+        Spill spill = entry.mSpill;
+        entry.mLoader = spill;
+
+        // Handed over here, on the EDT; the worker reads it only after this
+        spill.mGrid = grid;
+        mWorker.execute(spill::write);
+    }
+
+    // vvv loading vvv
+
+    private Future<TileGrid> startLoad(Entry entry) {
+        if (entry.mGrid != null) return CompletableFuture.completedFuture(entry.mGrid);
+        if (entry.mPending == null) entry.mPending = mWorker.submit(entry.mLoader);
+        return entry.mPending;
+    }
+
+    /**
+     * Takes in the room if its load has finished. A failed load is dropped so the next request tries again.
+     */
+    private void install(Entry entry) {
+        Future<TileGrid> pending = entry.mPending;
+        if (pending == null || !pending.isDone()) return;
+
+        entry.mPending = null;
+        try {
+            entry.mGrid = pending.get();
+            entry.mBytes = entry.mGrid.getMemoryBytes();
+        } catch (ExecutionException | CancellationException e) {
+            // The caller waiting on the future gets the failure
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void installFinished() {
+        for (Entry entry : mEntries.values()) {
+            install(entry);
+        }
+    }
+
+    /**
+     * Waits, briefly, for the worker to finish and deletes the spill files.
+     */
+    @Override
+    public void close() {
+        mEntries.clear();
+
+        mWorker.execute(this::deleteSpillDirectory);
+        mWorker.shutdown();
+        try {
+            mWorker.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // vvv worker thread vvv
+
+    private Path createSpillFile() throws IOException {
+        if (mSpillDirectory == null) {
+            mSpillDirectory = Files.createTempDirectory(SPILL_PREFIX);
+            mSpillDirectory.toFile().deleteOnExit();
+        }
+
+        Path path = mSpillDirectory.resolve("room" + mSpillCount++ + ".snapshot");
+        path.toFile().deleteOnExit();
+        return path;
+    }
+
+    private void deleteSpillDirectory() {
+        if (mSpillDirectory == null) return;
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(mSpillDirectory)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(mSpillDirectory);
+        } catch (IOException e) {
+            // Left for the temp directory cleanup
+        }
+    }
+
+    /**
+     * Spill file of one room, which is also how the room is loaded back. Only used on the worker thread, apart from
+     * the hand-over of the grid to write.
+     */
+    private class Spill implements Callable<TileGrid> {
+
+        private Path mPath;
+
+        // The room, until it is safely on disk. If writing it fails, the room simply stays here.
+        private volatile TileGrid mGrid;
+
+        void write() {
+            TileGrid grid = mGrid;
+            if (grid == null) return;
+
+            try {
+                if (mPath == null) mPath = createSpillFile();
+                RoomRecords.writeSnapshot(mPath, grid, 0, false);
+                mGrid = null;
+            } catch (IOException e) {
+                if (mFailure == null) mFailure = e;
+            }
+        }
+
+        @Override
+        public TileGrid call() throws IOException {
+            // Loads are queued behind the spill, so this is only still set if the spill failed
+            TileGrid grid = mGrid;
+            if (grid != null) {
+                mGrid = null;
+                return grid;
+            }
+
+            TileGrid loaded = RoomRecords.readSnapshot(mPath, TileType.None, IOProgress.NONE).mGrid;
+            loaded.finishReplay();
+            return loaded;
+        }
+
+        void delete() {
+            mGrid = null;
+            if (mPath == null) return;
+
+            try {
+                Files.deleteIfExists(mPath);
+            } catch (IOException e) {
+                // Left for close() or the temp directory cleanup
+            }
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package lucid.grid;
+
+import java.util.Arrays;
+
+/**
+ * Structural difference between two rooms of the same size: runs of neighboring tiles in a row that went from one
+ * type to another, plus the tiles whose nest, POI or door fields ended up different. Rooms are compared a row at a
+ * time straight off their tile planes, skipping equal stretches with {@link Arrays#mismatch}, so a diff costs one
+ * linear pass over the tiles plus a look at the sparse metadata, and holds memory in proportion to what changed.
+ * <p>
+ * The same pass also merges: see {@link #merge(TileGrid, TileGrid, TileGrid)}.
+ */
+public final class RoomDiff {
+
+    private final int mWidth, mHeight;
+
+    // Run r covers tiles mStarts[r] to mStarts[r] + mLengths[r] - 1, all in one row; runs are in ascending order
+    private int[] mStarts = new int[16], mLengths = new int[16];
+    private byte[] mOldTypes = new byte[16], mNewTypes = new byte[16];
+    private int mRuns;
+    private long mTiles;
+
+    // Metadata change m is on tile mMetadataIndices[m], in ascending order. Before is null where the tile had none
+    private int[] mMetadataIndices = new int[0];
+    private Object[] mMetadataBefore = new Object[0], mMetadataAfter = new Object[0];
+    private int mMetadataChanges;
+
+    private RoomDiff(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * What it takes to turn one room into the other. The rooms must be the same size.
+     */
+    public static RoomDiff compare(TileGrid from, TileGrid to) {
+        checkSameSize(from, to);
+
+        int width = from.getWidth();
+        RoomDiff diff = new RoomDiff(width, from.getHeight());
+
+        byte[] fromRow = new byte[width], toRow = new byte[width];
+        for (int y = 0; y < from.getHeight(); y++) {
+            from.copyRow(y, fromRow);
+            to.copyRow(y, toRow);
+            diff.addRowChanges(y * width, fromRow, toRow);
+        }
+
+        // Metadata can only differ on tiles where one of the rooms keeps some
+        for (int index : union(from.getMetadataIndices(), to.getMetadataIndices())) {
+            Object before = getMetadataOrDefault(from, index), after = getMetadataOrDefault(to, index);
+            if (after == null) continue;
+
+            // A tile whose type changes starts out with the defaults
+            boolean retyped = from.getTileType(index) != to.getTileType(index);
+            Object start = retyped ? Tile.createMetadata(to.getTileType(index)) : before;
+            if (!Tile.sameMetadata(start, after)) diff.addMetadata(index, before, after);
+        }
+
+        return diff;
+    }
+
+    /**
+     * Three-way merge of two rooms that were both edited from the same base. Each tile, with its metadata, ends up as
+     * whichever side changed it; where both sides changed it differently, ours is kept and the tile is reported as a
+     * conflict. The rooms must be the same size, and none of them is modified.
+     */
+    public static Merge merge(TileGrid base, TileGrid ours, TileGrid theirs) {
+        checkSameSize(base, ours);
+        checkSameSize(base, theirs);
+
+        int width = base.getWidth(), height = base.getHeight();
+        TileGrid merged = ours.snapshot();
+        RoomDiff changes = new RoomDiff(width, height), conflicts = new RoomDiff(width, height);
+
+        byte[] baseRow = new byte[width], ourRow = new byte[width], theirRow = new byte[width];
+        byte[] mergedRow = new byte[width];
+        boolean[] conflicted = new boolean[width];
+
+        // Tiles that take their metadata from theirs, per row
+        int[] fromTheirs = new int[16];
+
+        int[] candidates = union(union(base.getMetadataIndices(), ours.getMetadataIndices()),
+                theirs.getMetadataIndices());
+        int next = 0;
+
+        for (int y = 0; y < height; y++) {
+            int rowStart = y * width;
+
+            int rowCandidates = next;
+            while (rowCandidates < candidates.length && candidates[rowCandidates] < rowStart + width) rowCandidates++;
+
+            base.copyRow(y, baseRow);
+            theirs.copyRow(y, theirRow);
+
+            // A row theirs left alone stays as ours has it
+            int x = Arrays.mismatch(baseRow, theirRow);
+            if (x < 0 && next == rowCandidates) continue;
+
+            ours.copyRow(y, ourRow);
+            System.arraycopy(ourRow, 0, mergedRow, 0, width);
+            boolean anyConflict = false;
+
+            while (x >= 0) {
+                if (ourRow[x] == baseRow[x]) {
+                    mergedRow[x] = theirRow[x];
+                } else if (ourRow[x] != theirRow[x]) {
+                    conflicted[x] = anyConflict = true;
+                }
+
+                if (++x == width) break;
+                int skip = Arrays.mismatch(baseRow, x, width, theirRow, x, width);
+                if (skip < 0) break;
+                x += skip;
+            }
+
+            // Where any side keeps metadata, the type and the metadata of a tile are decided together
+            int taken = 0;
+            for (; next < rowCandidates; next++) {
+                int index = candidates[next], column = index - rowStart;
+
+                Object baseValue = getMetadataOrDefault(base, index);
+                Object ourValue = getMetadataOrDefault(ours, index);
+                Object theirValue = getMetadataOrDefault(theirs, index);
+
+                boolean theirsChanged = theirRow[column] != baseRow[column] || !Tile.sameMetadata(theirValue, baseValue);
+                boolean oursChanged = ourRow[column] != baseRow[column] || !Tile.sameMetadata(ourValue, baseValue);
+
+                if (theirsChanged && !oursChanged) {
+                    mergedRow[column] = theirRow[column];
+                    conflicted[column] = false;
+
+                    if (taken == fromTheirs.length) fromTheirs = Arrays.copyOf(fromTheirs, taken * 2);
+                    fromTheirs[taken++] = index;
+                } else {
+                    mergedRow[column] = ourRow[column];
+                    conflicted[column] = theirsChanged && (ourRow[column] != theirRow[column]
+                            || !Tile.sameMetadata(ourValue, theirValue));
+                    anyConflict |= conflicted[column];
+                }
+            }
+
+            // Types first, since writing a tile's type drops its old metadata
+            int firstRun = changes.mRuns;
+            changes.addRowChanges(rowStart, ourRow, mergedRow);
+            for (int run = firstRun; run < changes.mRuns; run++) {
+                merged.writeRun(changes.mStarts[run], changes.mLengths[run], changes.mNewTypes[run]);
+            }
+
+            for (int i = 0; i < taken; i++) {
+                int index = fromTheirs[i];
+                Object ourValue = getMetadataOrDefault(ours, index), theirValue = getMetadataOrDefault(theirs, index);
+                if (theirValue == null) continue;
+
+                merged.setMetadata(index, Tile.copyMetadata(theirValue));
+
+                boolean retyped = ourRow[index - rowStart] != theirRow[index - rowStart];
+                Object start = retyped ? Tile.createMetadata(theirs.getTileType(index)) : ourValue;
+                if (!Tile.sameMetadata(start, theirValue)) changes.addMetadata(index, ourValue, theirValue);
+            }
+
+            if (anyConflict) addConflicts(conflicts, rowStart, conflicted, ourRow, theirRow, ours, theirs);
+        }
+
+        return new Merge(merged, changes, conflicts);
+    }
+
+    /**
+     * Records the conflicted tiles of a row, from ours to theirs, and clears their flags.
+     */
+    private static void addConflicts(RoomDiff conflicts, int rowStart, boolean[] conflicted, byte[] ourRow,
+                                     byte[] theirRow, TileGrid ours, TileGrid theirs) {
+        int width = conflicted.length;
+
+        for (int x = 0; x < width; ) {
+            if (!conflicted[x]) {
+                x++;
+                continue;
+            }
+
+            // Same type on both sides: only the metadata disagrees
+            if (ourRow[x] == theirRow[x]) {
+                conflicted[x] = false;
+                int index = rowStart + x++;
+                conflicts.addMetadata(index, getMetadataOrDefault(ours, index), getMetadataOrDefault(theirs, index));
+                continue;
+            }
+
+            int start = x;
+            byte ourType = ourRow[x], theirType = theirRow[x];
+            do {
+                conflicted[x++] = false;
+            } while (x < width && conflicted[x] && ourRow[x] == ourType && theirRow[x] == theirType);
+
+            conflicts.addRun(rowStart + start, x - start, ourType, theirType);
+        }
+    }
+
+    /**
+     * Makes the changes to another grid as a single undoable edit: every run is set to its new type, whatever the
+     * tiles hold now, and then the metadata is written.
+     */
+    public void applyTo(TileGrid grid) {
+        if (grid.getWidth() != mWidth || grid.getHeight() != mHeight) {
+            throw new IllegalArgumentException("Diff is for a " + mWidth + "x" + mHeight + " room, not "
+                    + grid.getWidth() + "x" + grid.getHeight() + "!");
+        }
+
+        grid.beginEdit();
+        try {
+            for (int run = 0; run < mRuns; run++) {
+                grid.writeRun(mStarts[run], mLengths[run], mNewTypes[run]);
+            }
+            for (int change = 0; change < mMetadataChanges; change++) {
+                grid.setMetadata(mMetadataIndices[change], Tile.copyMetadata(mMetadataAfter[change]));
+            }
+        } finally {
+            grid.endEdit();
+        }
+    }
+
+    // vvv reading the diff vvv
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public boolean isEmpty() {
+        return mRuns == 0 && mMetadataChanges == 0;
+    }
+
+    /**
+     * Number of tiles whose type changed.
+     */
+    public long getChangedTileCount() {
+        return mTiles;
+    }
+
+    public int getRunCount() {
+        return mRuns;
+    }
+
+    public int getRunStart(int run) {
+        return mStarts[run];
+    }
+
+    public int getRunLength(int run) {
+        return mLengths[run];
+    }
+
+    public TileType getOldType(int run) {
+        return TileType.fromOrdinal(mOldTypes[run]);
+    }
+
+    public TileType getNewType(int run) {
+        return TileType.fromOrdinal(mNewTypes[run]);
+    }
+
+    /**
+     * The first run that ends after the given tile index, or the run count if there is none.
+     */
+    public int findRun(int index) {
+        int low = 0, high = mRuns;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mStarts[middle] + mLengths[middle] <= index) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Number of tiles whose nest, POI or door fields changed beyond what their change of type implies.
+     */
+    public int getMetadataChangeCount() {
+        return mMetadataChanges;
+    }
+
+    public int getMetadataIndex(int change) {
+        return mMetadataIndices[change];
+    }
+
+    /**
+     * The first metadata change at or after the given tile index, or the metadata change count if there is none.
+     */
+    public int findMetadataChange(int index) {
+        int found = Arrays.binarySearch(mMetadataIndices, 0, mMetadataChanges, index);
+        return found >= 0 ? found : -found - 1;
+    }
+
+    // vvv building the diff vvv
+
+    /**
+     * Adds the runs where two copies of the row at rowStart differ.
+     */
+    private void addRowChanges(int rowStart, byte[] from, byte[] to) {
+        int width = from.length;
+
+        int x = Arrays.mismatch(from, to);
+        while (x >= 0) {
+            int start = x;
+            byte oldType = from[x], newType = to[x];
+            do {
+                x++;
+            } while (x < width && from[x] == oldType && to[x] == newType);
+
+            addRun(rowStart + start, x - start, oldType, newType);
+
+            if (x == width) break;
+            int skip = Arrays.mismatch(from, x, width, to, x, width);
+            if (skip < 0) break;
+            x += skip;
+        }
+    }
+
+    private void addRun(int start, int length, byte oldType, byte newType) {
+        if (mRuns == mStarts.length) {
+            int capacity = mRuns * 2;
+            mStarts = Arrays.copyOf(mStarts, capacity);
+            mLengths = Arrays.copyOf(mLengths, capacity);
+            mOldTypes = Arrays.copyOf(mOldTypes, capacity);
+            mNewTypes = Arrays.copyOf(mNewTypes, capacity);
+        }
+
+        mStarts[mRuns] = start;
+        mLengths[mRuns] = length;
+        mOldTypes[mRuns] = oldType;
+        mNewTypes[mRuns] = newType;
+        mRuns++;
+        mTiles += length;
+    }
+
+    /**
+     * Keeps copies, so the diff stays as it was when the rooms go on being edited.
+     */
+    private void addMetadata(int index, Object before, Object after) {
+        if (mMetadataChanges == mMetadataIndices.length) {
+            int capacity = Math.max(4, mMetadataChanges * 2);
+            mMetadataIndices = Arrays.copyOf(mMetadataIndices, capacity);
+            mMetadataBefore = Arrays.copyOf(mMetadataBefore, capacity);
+            mMetadataAfter = Arrays.copyOf(mMetadataAfter, capacity);
+        }
+
+        mMetadataIndices[mMetadataChanges] = index;
+        mMetadataBefore[mMetadataChanges] = Tile.copyMetadata(before);
+        mMetadataAfter[mMetadataChanges] = Tile.copyMetadata(after);
+        mMetadataChanges++;
+    }
+
+    // vvv helpers vvv
+
+    /**
+     * The metadata of a tile, the defaults if its type carries metadata but it has none yet, or null if its type
+     * carries none.
+     */
+    static Object getMetadataOrDefault(TileGrid grid, int index) {
+        Object metadata = grid.findMetadata(index);
+        return metadata != null ? metadata : Tile.createMetadata(grid.getTileType(index));
+    }
+
+    private static void checkSameSize(TileGrid a, TileGrid b) {
+        if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight()) {
+            throw new IllegalArgumentException("Can't compare a " + a.getWidth() + "x" + a.getHeight() + " room with a "
+                    + b.getWidth() + "x" + b.getHeight() + " one!");
+        }
+    }
+
+    /**
+     * The distinct values of two ascending arrays, in ascending order.
+     */
+    private static int[] union(int[] a, int[] b) {
+        int[] union = new int[a.length + b.length];
+
+        int i = 0, j = 0, count = 0;
+        while (i < a.length || j < b.length) {
+            int value;
+            if (j == b.length || (i < a.length && a[i] < b[j])) value = a[i++];
+            else if (i == a.length || b[j] < a[i]) value = b[j++];
+            else { value = a[i++]; j++; }
+
+            union[count++] = value;
+        }
+
+        return count == union.length ? union : Arrays.copyOf(union, count);
+    }
+
+    /**
+     * Outcome of a three-way merge.
+     */
+    public static final class Merge {
+
+        private final TileGrid mGrid;
+        private final RoomDiff mChanges, mConflicts;
+
+        private Merge(TileGrid grid, RoomDiff changes, RoomDiff conflicts) {
+            mGrid = grid;
+            mChanges = changes;
+            mConflicts = conflicts;
+        }
+
+        /**
+         * The merged room, a new grid with an empty history.
+         */
+        public TileGrid getGrid() {
+            return mGrid;
+        }
+
+        /**
+         * What the merge took from theirs, as a diff from ours to the merged room.
+         */
+        public RoomDiff getChanges() {
+            return mChanges;
+        }
+
+        /**
+         * Tiles both sides changed, each its own way, as a diff from ours to theirs. The merged room has ours there.
+         */
+        public RoomDiff getConflicts() {
+            return mConflicts;
+        }
+
+        public boolean isClean() {
+            return mConflicts.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package lucid.grid;
+
+import lucid.serialization.BinaryRoomFormat;
+import lucid.serialization.IOProgress;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+
+/**
+ * Record encoding shared by the autosave journal and room spill files. Unlike the save formats it stores any room,
+ * including invalid ones and ones with unparsable nest fields, and it is cheap to write and replay.
+ *
+ * <pre>
+ * snapshot  magic "LUCS", version (byte), generation (long), width, height (ints), frames
+ * frame     payload length, CRC32 of the payload (ints), payload
+ * record    RUN:  op (byte), start, length (varints), type ordinal (byte); the run lies within one row
+ *           NEST: op (byte), index (varint), spawnRadius, spawnChance, attempts min, max (strings)
+ *           POI:  op (byte), index (varint), type (string)
+ *           DOOR: op (byte), index (varint), direction (string)
+ * </pre>
+ *
+ * Numbers and strings are encoded as in {@link BinaryRoomFormat}. A snapshot lists every run and every piece of
+ * metadata of a room. A frame that fails its checksum, e.g. one torn by a crash, is never applied.
+ */
+final class RoomRecords {
+
+    static final byte VERSION = 1;
+
+    private static final int SNAPSHOT_MAGIC = 0x4C554353; // "LUCS"
+    private static final int SNAPSHOT_HEADER_BYTES = 21;
+
+    private static final byte OP_RUN = 1;
+    private static final byte OP_NEST = 2;
+    private static final byte OP_POI = 3;
+    private static final byte OP_DOOR = 4;
+
+    /**
+     * Snapshots are written in frames of about this many bytes.
+     */
+    private static final int SNAPSHOT_FRAME_BYTES = 1 << 16;
+
+    private RoomRecords() {}
+
+    /**
+     * A room read back from a snapshot. The grid still needs {@link TileGrid#finishReplay()} once nothing more is
+     * replayed onto it.
+     */
+    static class Snapshot {
+        final TileGrid mGrid;
+        final long mGeneration;
+
+        private Snapshot(TileGrid grid, long generation) {
+            mGrid = grid;
+            mGeneration = generation;
+        }
+    }
+
+    // vvv snapshots vvv
+
+    /**
+     * Writes a snapshot of the grid to a temporary file and renames it over target, so target is always either the
+     * old snapshot or the complete new one. Returns the size of the file. The grid must not change meanwhile.
+     */
+    static long writeSnapshot(Path target, TileGrid grid, long generation, boolean durable) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        long bytes;
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES);
+            header.putInt(SNAPSHOT_MAGIC).put(VERSION).putLong(generation).putInt(grid.getWidth()).putInt(grid.getHeight());
+            header.flip();
+            writeFully(channel, header);
+
+            FrameWriter frames = new FrameWriter(channel);
+            int width = grid.getWidth(), size = width * grid.getHeight();
+
+            // Every run of the plane, split at row ends, then every piece of metadata
+            for (int index = 0; index < size; ) {
+                byte type = grid.getTileType(index).toOrdinal();
+                int start = index, rowEnd = (index / width + 1) * width;
+                while (index < rowEnd && grid.getTileType(index).toOrdinal() == type) index++;
+
+                writeRun(frames.mRecords, start, index - start, type);
+                frames.flushIfFull();
+            }
+            for (int index = 0; index < size; index++) {
+                Object metadata = grid.findMetadata(index);
+                if (metadata == null) continue;
+
+                writeMetadata(frames.mRecords, index, metadata);
+                frames.flushIfFull();
+            }
+            frames.flush();
+
+            if (durable) channel.force(true);
+            bytes = channel.size();
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        return bytes;
+    }
+
+    static Snapshot readSnapshot(Path path, TileType activeTileType, IOProgress progress) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (in.getInt() != SNAPSHOT_MAGIC || in.get() > VERSION) {
+                throw new IllegalArgumentException("Not a room snapshot: " + path);
+            }
+            long generation = in.getLong();
+            TileGrid grid = new TileGrid(in.getInt(), in.getInt(), activeTileType);
+
+            // Snapshots are renamed into place complete, so unlike a journal one must check out to the end
+            while (in.hasRemaining()) {
+                progress.update(in.position(), in.capacity());
+                if (!readFrame(in, grid)) {
+                    throw new IllegalArgumentException("Room snapshot is damaged: " + path);
+                }
+            }
+
+            return new Snapshot(grid, generation);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Room snapshot is truncated: " + path);
+        }
+    }
+
+    // vvv frames vvv
+
+    static void writeFrame(FileChannel channel, CRC32 checksum, byte[] payload, int length) throws IOException {
+        checksum.reset();
+        checksum.update(payload, 0, length);
+
+        ByteBuffer frame = ByteBuffer.allocate(8 + length);
+        frame.putInt(length).putInt((int) checksum.getValue()).put(payload, 0, length);
+        frame.flip();
+        writeFully(channel, frame);
+    }
+
+    /**
+     * Applies the next frame. Returns false, having applied nothing, if the frame is cut short or fails its checksum.
+     */
+    static boolean readFrame(ByteBuffer in, TileGrid grid) {
+        if (in.remaining() < 8) return false;
+
+        int length = in.getInt();
+        int checksum = in.getInt();
+        if (length < 0 || length > in.remaining()) return false;
+
+        ByteBuffer payload = in.slice();
+        payload.limit(length);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        if ((int) crc.getValue() != checksum) return false;
+
+        try {
+            readRecords(payload, grid);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Malformed room record!");
+        }
+        in.position(in.position() + length);
+        return true;
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    /**
+     * Buffers snapshot records and writes them out a frame at a time.
+     */
+    private static class FrameWriter {
+        private final FileChannel mChannel;
+        private final CRC32 mChecksum = new CRC32();
+        private final ByteArrayOutputStream mBytes = new ByteArrayOutputStream(SNAPSHOT_FRAME_BYTES + 256);
+        private final DataOutputStream mRecords = new DataOutputStream(mBytes);
+
+        FrameWriter(FileChannel channel) {
+            mChannel = channel;
+        }
+
+        void flushIfFull() throws IOException {
+            if (mBytes.size() >= SNAPSHOT_FRAME_BYTES) flush();
+        }
+
+        void flush() throws IOException {
+            if (mBytes.size() == 0) return;
+            writeFrame(mChannel, mChecksum, mBytes.toByteArray(), mBytes.size());
+            mBytes.reset();
+        }
+    }
+
+    // vvv records vvv
+
+    static void writeRun(DataOutput out, int start, int length, byte type) throws IOException {
+        out.writeByte(OP_RUN);
+        BinaryRoomFormat.writeVarInt(out, start);
+        BinaryRoomFormat.writeVarInt(out, length);
+        out.writeByte(type);
+    }
+
+    static void writeMetadata(DataOutput out, int index, Object metadata) throws IOException {
+        if (metadata instanceof Tile.Nest) {
+            Tile.Nest nest = (Tile.Nest) metadata;
+            out.writeByte(OP_NEST);
+            BinaryRoomFormat.writeVarInt(out, index);
+            BinaryRoomFormat.writeString(out, nest.spawnRadius);
+            BinaryRoomFormat.writeString(out, nest.spawnChance);
+            BinaryRoomFormat.writeString(out, nest.spawnAttemptsMin);
+            BinaryRoomFormat.writeString(out, nest.spawnAttemptsMax);
+        } else if (metadata instanceof Tile.POI) {
+            out.writeByte(OP_POI);
+            BinaryRoomFormat.writeVarInt(out, index);
+            BinaryRoomFormat.writeString(out, ((Tile.POI) metadata).type);
+        } else if (metadata instanceof Tile.Door) {
+            out.writeByte(OP_DOOR);
+            BinaryRoomFormat.writeVarInt(out, index);
+            BinaryRoomFormat.writeString(out, ((Tile.Door) metadata).direction);
+        } else {
+            throw new IllegalArgumentException("Not tile metadata: " + metadata);
+        }
+    }
+
+    private static void readRecords(ByteBuffer in, TileGrid grid) {
+        while (in.hasRemaining()) {
+            byte op = in.get();
+            switch (op) {
+                case OP_RUN:
+                    int start = BinaryRoomFormat.readVarInt(in);
+                    int length = BinaryRoomFormat.readVarInt(in);
+                    grid.replayRun(start, length, in.get());
+                    break;
+                case OP_NEST:
+                    int nestIndex = BinaryRoomFormat.readVarInt(in);
+                    Tile.Nest nest = new Tile.Nest();
+                    nest.spawnRadius = BinaryRoomFormat.readString(in);
+                    nest.spawnChance = BinaryRoomFormat.readString(in);
+                    nest.spawnAttemptsMin = BinaryRoomFormat.readString(in);
+                    nest.spawnAttemptsMax = BinaryRoomFormat.readString(in);
+                    grid.replayMetadata(nestIndex, nest);
+                    break;
+                case OP_POI:
+                    int poiIndex = BinaryRoomFormat.readVarInt(in);
+                    Tile.POI poi = new Tile.POI();
+                    poi.type = BinaryRoomFormat.readString(in);
+                    grid.replayMetadata(poiIndex, poi);
+                    break;
+                case OP_DOOR:
+                    int doorIndex = BinaryRoomFormat.readVarInt(in);
+                    Tile.Door door = new Tile.Door();
+                    door.direction = BinaryRoomFormat.readString(in);
+                    grid.replayMetadata(doorIndex, door);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown room record " + op);
+            }
+        }
+    }
+}
@@ -3,62 +3,45 @@ package lucid.grid;
 import lucid.GUI.InspectorPanel;
 import lucid.serialization.RoomTemplate;
 
-import javax.swing.*;
 import java.awt.*;
-import java.awt.event.ItemEvent;
-import java.awt.event.ItemListener;
-import java.awt.event.KeyAdapter;
-import java.awt.event.KeyEvent;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.function.Consumer;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
+/**
+ * Lightweight view over a single cell of a {@link TileGrid}. The grid owns the packed tile types and the sparse
+ * metadata tables; a Tile only remembers which grid and index it points at.
+ */
 public class Tile {
 
-    private static final String NEST_RADIUS = "3";
-    private static final String NEST_CHANCE = "1.0";
-    private static final String NEST_MIN = "0";
-    private static final String NEST_MAX = "1";
+    static final String NEST_RADIUS = "3";
+    static final String NEST_CHANCE = "1.0";
+    static final String NEST_MIN = "0";
+    static final String NEST_MAX = "1";
 
-    private static final String POI_TYPE = "Vendor";
+    static final String POI_TYPE = "Vendor";
 
-    private final int mIndex;
-
-    private TileType mTileType;
+    static final String DOOR_DIRECTION = "N";
 
+    private final TileGrid mGrid;
 
-    private final Nest mNest;
-    private Treasure mTreasrue;
-    private POI mPOI;
-    private Door mDoor;
+    private final int mIndex;
 
-    public Tile(int index, TileType tileType) {
+    public Tile(TileGrid grid, int index) {
+        mGrid = grid;
         mIndex = index;
-        mTileType = tileType;
-
-        mNest = new Nest();
-        mTreasrue = new Treasure();
-        mPOI = new POI();
-        mDoor = new Door();
     }
 
     /**
      * Returns the previous type.
      */
     public TileType setTileType(TileType type) {
-        TileType old = mTileType;
-        mTileType = type;
-        return old;
+        return mGrid.setTileType(mIndex, type);
     }
 
     public Color getColor() {
-        return mTileType.getColor();
+        return getTileType().getColor();
     }
 
     public TileType getTileType() {
-        return mTileType;
+        return mGrid.getTileType(mIndex);
     }
 
     public int getIndex() {
@@ -68,265 +51,170 @@ public class Tile {
 
     public RoomTemplate.EnemyNest getEnemyNest() throws IllegalArgumentException {
         // Throw if invalid type
-        if (mTileType != TileType.Nest) throw new IllegalArgumentException("Wrong type!");
-
-        RoomTemplate.EnemyNest nest = new RoomTemplate.EnemyNest();
-
-        try {
-            nest.index = mIndex;
-            nest.spawnRadius = Integer.parseInt(mNest.spawnRadius);
-            nest.spawnChance = Float.parseFloat(mNest.spawnChance);
-            nest.spawnAttemptsMin = Integer.parseInt(mNest.spawnAttemptsMin);
-            nest.spawnAttemptsMax = Integer.parseInt(mNest.spawnAttemptsMax);
-        } catch (NumberFormatException e) {
-            throw new IllegalArgumentException("Illegally-formatted entry in nest tile!");
-        }
+        if (getTileType() != TileType.Nest) throw new IllegalArgumentException("Wrong type!");
 
-        return nest;
+        return mGrid.getNest(mIndex).toTemplate(mIndex);
     }
 
     public RoomTemplate.POI getPOI() {
         // Throw if invalid type
-        if (mTileType != TileType.POI) throw new IllegalArgumentException("Wrong type!");
+        if (getTileType() != TileType.POI) throw new IllegalArgumentException("Wrong type!");
 
-        RoomTemplate.POI poi = new RoomTemplate.POI();
-
-        poi.index = mIndex;
-        poi.type = mPOI.type;
-
-        return poi;
+        return mGrid.getPOI(mIndex).toTemplate(mIndex);
     }
 
     public RoomTemplate.Door getDoor() {
         // Throw if invalid type
-        if (mTileType != TileType.Door) throw new IllegalArgumentException("Wrong type!");
+        if (getTileType() != TileType.Door) throw new IllegalArgumentException("Wrong type!");
 
-        RoomTemplate.Door door = new RoomTemplate.Door();
+        return mGrid.getDoor(mIndex).toTemplate(mIndex);
+    }
 
-        door.index = mIndex;
-        door.direction = mDoor.direction;
+    /**
+     * Shows the tile in the inspector, using the editor it keeps for this tile's type.
+     */
+    public void renderOnInspector(InspectorPanel inspector) {
+        inspector.inspect(this);
+    }
 
-        return door;
+    TileGrid getGrid() {
+        return mGrid;
     }
 
-    public void renderOnInspector(InspectorPanel inspector) {
-        // The header is constant across all tile types
-        String header = getInspectorHeader();
-
-
-        // The rest depends on the tile type
-        List<JLabel> labels; List<JComponent> components;
-        switch (mTileType) {
-            case None:
-            case Floor:
-            case Wall:
-                // Nothing extra for these types
-                labels = new ArrayList<>(0);
-                components = new ArrayList<>(0);
-                break;
-            case Door:
-                // Create for door
-                labels = getLabelsDoor();
-                components = getComponentsDoor();
-                break;
+    // vvv metadata of any kind vvv
+
+    /**
+     * Metadata with the default values for a tile of the given type, or null if the type carries none.
+     */
+    static Object createMetadata(TileType type) {
+        switch (type) {
             case Nest:
-                // Create for nest
-                labels = getLabelsEnemyNest();
-                components = getComponentsEnemyNest();
-                break;
-            case Treasure:
-                labels = getLabelsTreasure();
-                components = getComponentsTreasure();
-                break;
+                return new Nest();
             case POI:
-                labels = getLabelsPOI();
-                components = getComponentsPOI();
-                break;
+                return new POI();
+            case Door:
+                return new Door();
             default:
-                throw new IllegalArgumentException();
+                return null;
         }
-
-        inspector.acceptInspectorData(header, labels, components);
     }
 
-    private List<JComponent> getComponentsPOI() {
-        List<JComponent> components = new ArrayList<>(1);
-
-        JRadioButton buttonTest1 = createRadioButtonComponent("Vendor", () -> mPOI.type = "Vendor");
-        JRadioButton buttonTest2 = createRadioButtonComponent("TotemHealth", () -> mPOI.type = "TotemHealth");
-        JRadioButton buttonTest3 = createRadioButtonComponent("TotemGold", () -> mPOI.type = "TotemGold");
-        JRadioButton buttonTest4 = createRadioButtonComponent("TotemMystery", () -> mPOI.type = "TotemMystery");
-
-        ButtonGroup bg = new ButtonGroup();
-        bg.add(buttonTest1); bg.add(buttonTest2);
-        bg.add(buttonTest3); bg.add(buttonTest4);
-
-        JPanel panel = new JPanel();
-        BoxLayout layout = new BoxLayout(panel, BoxLayout.PAGE_AXIS);
-        panel.setLayout(layout);
-        panel.add(buttonTest1);
-        panel.add(buttonTest2);
-        panel.add(buttonTest3);
-        panel.add(buttonTest4);
-
-        components.add(panel);
-
-        return components;
+    static Object copyMetadata(Object metadata) {
+        if (metadata instanceof Nest) return ((Nest) metadata).copy();
+        if (metadata instanceof POI) return ((POI) metadata).copy();
+        if (metadata instanceof Door) return ((Door) metadata).copy();
+        return null;
     }
 
-    private List<JLabel> getLabelsPOI() {
-        return Stream.of(new JLabel("POI Type:")).collect(Collectors.toList());
+    /**
+     * True if both are null, or both are the same kind of metadata with the same fields.
+     */
+    static boolean sameMetadata(Object a, Object b) {
+        if (a == null || b == null) return a == b;
+        if (a instanceof Nest && b instanceof Nest) return ((Nest) a).sameAs((Nest) b);
+        if (a instanceof POI && b instanceof POI) return ((POI) a).sameAs((POI) b);
+        if (a instanceof Door && b instanceof Door) return ((Door) a).sameAs((Door) b);
+        return false;
     }
 
-    private List<JComponent> getComponentsTreasure() {
-        return new ArrayList<>(0);
-    }
+    /**
+     * Nest metadata, stored sparsely by the owning grid.
+     */
+    static class Nest {
+        String spawnRadius = NEST_RADIUS;
+        String spawnChance = NEST_CHANCE;
+        String spawnAttemptsMin = NEST_MIN;
+        String spawnAttemptsMax = NEST_MAX;
+
+        Nest() {}
+
+        Nest copy() {
+            Nest copy = new Nest();
+            copy.spawnRadius = spawnRadius;
+            copy.spawnChance = spawnChance;
+            copy.spawnAttemptsMin = spawnAttemptsMin;
+            copy.spawnAttemptsMax = spawnAttemptsMax;
+            return copy;
+        }
 
-    private List<JLabel> getLabelsTreasure() {
-        return new ArrayList<>(0);
-    }
+        boolean sameAs(Nest other) {
+            return spawnRadius.equals(other.spawnRadius) && spawnChance.equals(other.spawnChance)
+                    && spawnAttemptsMin.equals(other.spawnAttemptsMin) && spawnAttemptsMax.equals(other.spawnAttemptsMax);
+        }
 
-    private List<JComponent> getComponentsEnemyNest() {
-        List<JComponent> components = new ArrayList<>(4);
+        Nest(RoomTemplate.EnemyNest nest) {
+            spawnRadius = String.valueOf(nest.spawnRadius);
+            spawnChance = String.valueOf(nest.spawnChance);
+            spawnAttemptsMin = String.valueOf(nest.spawnAttemptsMin);
+            spawnAttemptsMax = String.valueOf(nest.spawnAttemptsMax);
+        }
 
-        JTextField fieldRadius = new JTextField(mNest.spawnRadius); fieldRadius.setPreferredSize(new Dimension(25, 30));
-        fieldRadius.addKeyListener(new KeyAdapter() {
-            @Override
-            public void keyReleased(KeyEvent e) {
-                mNest.spawnRadius = fieldRadius.getText();
-            }
-        });
-        components.add(fieldRadius);
-
-        JTextField fieldChance = new JTextField(mNest.spawnChance); fieldChance.setPreferredSize(new Dimension(25, 30));
-        fieldChance.addKeyListener(new KeyAdapter() {
-            @Override
-            public void keyReleased(KeyEvent e) {
-                mNest.spawnChance = fieldChance.getText();
-            }
-        });
-        components.add(fieldChance);
-
-        JTextField fieldMin = new JTextField(mNest.spawnAttemptsMin); fieldMin.setPreferredSize(new Dimension(25, 30));
-        fieldMin.addKeyListener(new KeyAdapter() {
-            @Override
-            public void keyReleased(KeyEvent e) {
-                mNest.spawnAttemptsMin = fieldMin.getText();
+        RoomTemplate.EnemyNest toTemplate(int index) throws IllegalArgumentException {
+            RoomTemplate.EnemyNest nest = new RoomTemplate.EnemyNest();
+
+            try {
+                nest.index = index;
+                nest.spawnRadius = Integer.parseInt(spawnRadius);
+                nest.spawnChance = Float.parseFloat(spawnChance);
+                nest.spawnAttemptsMin = Integer.parseInt(spawnAttemptsMin);
+                nest.spawnAttemptsMax = Integer.parseInt(spawnAttemptsMax);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Illegally-formatted entry in nest tile!");
             }
-        });
-        components.add(fieldMin);
-
-        JTextField fieldMax = new JTextField(mNest.spawnAttemptsMax); fieldMax.setPreferredSize(new Dimension(25, 30));
-        fieldMax.addKeyListener(new KeyAdapter() {
-            @Override
-            public void keyReleased(KeyEvent e) {
-                mNest.spawnAttemptsMax = fieldMax.getText();
-            }
-        });
-
-        components.add(fieldMax);
-
-        return components;
-    }
-
-    private List<JLabel> getLabelsEnemyNest() {
-        List<JLabel> labels = new ArrayList<>(4);
-        labels.add(new JLabel("Spawn Radius"));
-        labels.add(new JLabel("Spawn Chance"));
-        labels.add(new JLabel("Spawn Attempts Minimum"));
-        labels.add(new JLabel("Spawn Attempts Maximum"));
-
-        return labels;
-    }
-
-    private List<JLabel> getLabelsDoor() {
-        List<JLabel> labels = new ArrayList<>(1);
-        labels.add(new JLabel("Direction"));
-        return labels;
-    }
 
-    private List<JComponent> getComponentsDoor() {
-        List<JComponent> components = new ArrayList<>(1);
-
-        JRadioButton buttonTest1 = createRadioButtonComponent("N", () -> mDoor.direction = "N");
-        JRadioButton buttonTest2 = createRadioButtonComponent("E", () -> mDoor.direction = "E");
-        JRadioButton buttonTest3 = createRadioButtonComponent("S", () -> mDoor.direction = "S");
-        JRadioButton buttonTest4 = createRadioButtonComponent("W", () -> mDoor.direction = "W");
-
-        ButtonGroup bg = new ButtonGroup();
-        bg.add(buttonTest1); bg.add(buttonTest2);
-        bg.add(buttonTest3); bg.add(buttonTest4);
-
-        JPanel panel = new JPanel();
-        BoxLayout layout = new BoxLayout(panel, BoxLayout.PAGE_AXIS);
-        panel.setLayout(layout);
-        panel.add(buttonTest1);
-        panel.add(buttonTest2);
-        panel.add(buttonTest3);
-        panel.add(buttonTest4);
-
-        components.add(panel);
-
-        return components;
+            return nest;
+        }
     }
 
-    private String getInspectorHeader() {
-        return String.format("TYPE: %s     INDEX: %d", mTileType.toString(), mIndex);
-    }
+    /**
+     * POI metadata, stored sparsely by the owning grid.
+     */
+    static class POI {
+        String type = POI_TYPE;
 
-    private JTextField createTextFieldComponent(String initialString, Consumer<String> setter, int width) {
-        JTextField field = new JTextField(initialString); field.setPreferredSize(new Dimension(width, 30));
+        POI copy() {
+            POI copy = new POI();
+            copy.type = type;
+            return copy;
+        }
 
-        field.addKeyListener(new KeyAdapter() {
-            @Override
-            public void keyReleased(KeyEvent e) {
-                super.keyReleased(e);
-                setter.accept(field.getText());
-            }
-        });
+        boolean sameAs(POI other) {
+            return type.equals(other.type);
+        }
 
-        return field;
-    }
+        RoomTemplate.POI toTemplate(int index) {
+            RoomTemplate.POI poi = new RoomTemplate.POI();
 
-    private JRadioButton createRadioButtonComponent(String title, Runnable selector) {
-        JRadioButton button = new JRadioButton(title);
-        button.addItemListener(e -> {
-            if (e.getStateChange() == ItemEvent.SELECTED) {
-                selector.run();
-            }
-        });
-        return button;
-    }
+            poi.index = index;
+            poi.type = type;
 
-    public void createNest(RoomTemplate.EnemyNest nest) {
-        mTileType = TileType.Nest;
-        mNest.spawnAttemptsMax = String.valueOf(nest.spawnAttemptsMax);
-        mNest.spawnAttemptsMin = String.valueOf(nest.spawnAttemptsMin);
-        mNest.spawnChance = String.valueOf(nest.spawnChance);
-        mNest.spawnRadius = String.valueOf(nest.spawnRadius);
+            return poi;
+        }
     }
 
-    public void createDoor(RoomTemplate.Door door) {
-        mTileType = TileType.Door;
-        mDoor.direction = door.direction;
-    }
+    /**
+     * Door metadata, stored sparsely by the owning grid.
+     */
+    static class Door {
+        String direction = DOOR_DIRECTION;
 
-    private static class Nest {
-        private String spawnRadius = NEST_RADIUS;
-        private String spawnChance = NEST_CHANCE;
-        private String spawnAttemptsMin = NEST_MIN;
-        private String spawnAttemptsMax = NEST_MAX;
-    }
+        Door copy() {
+            Door copy = new Door();
+            copy.direction = direction;
+            return copy;
+        }
 
-    private static class Treasure {
+        boolean sameAs(Door other) {
+            return direction.equals(other.direction);
+        }
 
-    }
+        RoomTemplate.Door toTemplate(int index) {
+            RoomTemplate.Door door = new RoomTemplate.Door();
 
-    private static class POI {
-        private String type = POI_TYPE;
-    }
+            door.index = index;
+            door.direction = direction;
 
-    private static class Door {
-        private String direction = "N";
+            return door;
+        }
     }
 }
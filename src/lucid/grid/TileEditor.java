@@ -0,0 +1,226 @@
+package lucid.grid;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ItemEvent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+
+/**
+ * Inspector controls for the metadata of one tile type. An editor is built once per type and then rebound to
+ * whichever tile of that type is being inspected, which only updates the values it shows.
+ */
+public abstract class TileEditor {
+
+    private static final String[] POI_TYPES = {"Vendor", "TotemHealth", "TotemGold", "TotemMystery"};
+    private static final String[] DOOR_DIRECTIONS = {"N", "E", "S", "W"};
+
+    private final TileType mType;
+    private final JPanel mPanel = new JPanel();
+
+    // The tile being edited
+    TileGrid mGrid;
+    int mIndex;
+
+    // Set while rebinding, so the values being shown aren't written back as edits
+    private boolean mBinding;
+
+    TileEditor(TileType type) {
+        mType = type;
+        mPanel.setLayout(new BoxLayout(mPanel, BoxLayout.PAGE_AXIS));
+    }
+
+    public static TileEditor forType(TileType type) {
+        switch (type) {
+            case Nest:
+                return new NestEditor();
+            case POI:
+                return new ChoiceEditor(type, "POI Type:", POI_TYPES) {
+                    @Override
+                    String getValue() {
+                        return mGrid.getPOI(mIndex).type;
+                    }
+
+                    @Override
+                    void setValue(String value) {
+                        mGrid.editPOI(mIndex, p -> p.type = value);
+                    }
+                };
+            case Door:
+                return new ChoiceEditor(type, "Direction", DOOR_DIRECTIONS) {
+                    @Override
+                    String getValue() {
+                        return mGrid.getDoor(mIndex).direction;
+                    }
+
+                    @Override
+                    void setValue(String value) {
+                        mGrid.editDoor(mIndex, d -> d.direction = value);
+                    }
+                };
+            default:
+                // Nothing extra for the other types
+                return new TileEditor(type) {
+                    @Override
+                    void showValues() {}
+                };
+        }
+    }
+
+    public TileType getType() {
+        return mType;
+    }
+
+    public JComponent getComponent() {
+        return mPanel;
+    }
+
+    /**
+     * Points the editor at another tile of its type and shows that tile's values.
+     */
+    public void bind(Tile tile) {
+        if (tile.getTileType() != mType) throw new IllegalArgumentException("Wrong type!");
+
+        mGrid = tile.getGrid();
+        mIndex = tile.getIndex();
+
+        mBinding = true;
+        try {
+            showValues();
+        } finally {
+            mBinding = false;
+        }
+    }
+
+    abstract void showValues();
+
+    /**
+     * True if a change coming from the controls should go to the grid: the user made it, and the tile hasn't since
+     * been painted over with another type.
+     */
+    boolean isEditable() {
+        return !mBinding && mGrid != null && mGrid.getTileType(mIndex) == mType;
+    }
+
+    void addRow(String label, JComponent component) {
+        JPanel row = new JPanel();
+        row.add(new JLabel(label));
+        row.add(component);
+        mPanel.add(row);
+    }
+
+    private static class NestEditor extends TileEditor {
+
+        private final JTextField mFieldRadius = createField(), mFieldChance = createField();
+        private final JTextField mFieldMin = createField(), mFieldMax = createField();
+
+        // What each field was last set to or typed into, since setText() is costly even for the same text
+        private final String[] mShown = new String[4];
+
+        NestEditor() {
+            super(TileType.Nest);
+
+            addRow("Spawn Radius", mFieldRadius);
+            addRow("Spawn Chance", mFieldChance);
+            addRow("Spawn Attempts Minimum", mFieldMin);
+            addRow("Spawn Attempts Maximum", mFieldMax);
+        }
+
+        private JTextField createField() {
+            JTextField field = new JTextField();
+            field.setPreferredSize(new Dimension(25, 30));
+            field.addKeyListener(new KeyAdapter() {
+                @Override
+                public void keyReleased(KeyEvent e) {
+                    if (isEditable()) mGrid.editNest(mIndex, nest -> readFields(nest));
+                }
+            });
+            return field;
+        }
+
+        private void readFields(Tile.Nest nest) {
+            nest.spawnRadius = mShown[0] = mFieldRadius.getText();
+            nest.spawnChance = mShown[1] = mFieldChance.getText();
+            nest.spawnAttemptsMin = mShown[2] = mFieldMin.getText();
+            nest.spawnAttemptsMax = mShown[3] = mFieldMax.getText();
+        }
+
+        @Override
+        void showValues() {
+            Tile.Nest nest = mGrid.getNest(mIndex);
+            show(0, mFieldRadius, nest.spawnRadius);
+            show(1, mFieldChance, nest.spawnChance);
+            show(2, mFieldMin, nest.spawnAttemptsMin);
+            show(3, mFieldMax, nest.spawnAttemptsMax);
+        }
+
+        private void show(int slot, JTextField field, String value) {
+            if (value.equals(mShown[slot])) return;
+
+            field.setText(value);
+            mShown[slot] = value;
+        }
+    }
+
+    /**
+     * One of a fixed set of values, picked with radio buttons.
+     */
+    private abstract static class ChoiceEditor extends TileEditor {
+
+        private final String[] mOptions;
+        private final JRadioButton[] mButtons;
+        private final ButtonGroup mGroup = new ButtonGroup();
+
+        // Index of the selected button, or -1
+        private int mSelected = -1;
+
+        ChoiceEditor(TileType type, String label, String[] options) {
+            super(type);
+            mOptions = options;
+            mButtons = new JRadioButton[options.length];
+
+            JPanel panel = new JPanel();
+            panel.setLayout(new BoxLayout(panel, BoxLayout.PAGE_AXIS));
+
+            for (int i = 0; i < options.length; i++) {
+                String option = options[i];
+                JRadioButton button = new JRadioButton(option);
+                int index = i;
+                button.addItemListener(e -> {
+                    if (e.getStateChange() != ItemEvent.SELECTED) return;
+
+                    mSelected = index;
+                    if (isEditable()) setValue(option);
+                });
+
+                mButtons[i] = button;
+                mGroup.add(button);
+                panel.add(button);
+            }
+
+            addRow(label, panel);
+        }
+
+        abstract String getValue();
+
+        abstract void setValue(String value);
+
+        @Override
+        void showValues() {
+            String value = getValue();
+
+            int selected = -1;
+            for (int i = 0; i < mOptions.length; i++) {
+                if (mOptions[i].equals(value)) selected = i;
+            }
+            if (selected == mSelected) return;
+
+            if (selected >= 0) {
+                mButtons[selected].setSelected(true);
+            } else {
+                mGroup.clearSelection();
+                mSelected = -1;
+            }
+        }
+    }
+}
@@ -1,89 +1,166 @@
 package lucid.grid;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import lucid.serialization.BinaryRoomFormat;
+import lucid.serialization.CompactRoomFormat;
+import lucid.serialization.IOProgress;
+import lucid.serialization.ProgressInputStream;
+import lucid.serialization.ProgressOutputStream;
 import lucid.serialization.RoomTemplate;
 import lucid.serialization.SerializationFormat;
 
 import java.awt.*;
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
- * Tile grid.
+ * Tile grid. Tile types are packed one byte per cell in a {@link TilePlane}; the few tiles that carry extra data
+ * (nests, POIs and doors) keep it in sparse tables keyed by tile index.
  */
 public class TileGrid {
 
+    /**
+     * Grids with more tiles than this use the chunked, lazily-allocated plane instead of a flat array.
+     */
+    private static final long PACKED_TILE_LIMIT = 2048L * 2048L;
+
+    /**
+     * Binary loads report progress each time the run or tile counter, masked with this, comes back to zero.
+     */
+    private static final int BINARY_PROGRESS_MASK = (1 << 16) - 1;
+
+    /**
+     * Rough size of one piece of metadata, its map entry and its strings.
+     */
+    private static final int METADATA_BYTES = 160;
+
+    private static final int[] TILE_RGB = TileType.createRGBPalette();
+
     private int mWidth, mHeight;
 
-    private Tile[] mTiles;
+    private TilePlane mTypes;
+
+    private final Map<Integer, Tile.Nest> mNests = new HashMap<>();
+    private final Map<Integer, Tile.POI> mPOIs = new HashMap<>();
+    private final Map<Integer, Tile.Door> mDoors = new HashMap<>();
 
     private TileType mActiveTileType;
 
+    private final BoardValidator mValidator = new BoardValidator(this);
+
+    private final ReachabilityAnalyzer mReachability = new ReachabilityAnalyzer(this);
+
+    private final EditHistory mHistory = new EditHistory(this);
+
+    // Autosave journal that hears about every change, or null
+    private AutosaveJournal mJournal;
+
+    // Content hash, kept up to date with every change; see ContentHash
+    private long mHash;
+
+    // Bounding box, in tiles, of the changes not yet picked up by takeDirtyRegion(); empty while mDirtyMaxX < 0
+    private int mDirtyMinX, mDirtyMinY, mDirtyMaxX = -1, mDirtyMaxY;
+
     public TileGrid(int width, int height, TileType currentTileType) {
         mWidth = width;
         mHeight = height;
 
-        mTiles = InitTiles();
+        mTypes = InitTiles();
+        markAllDirty();
+        mHash = computeContentHash();
+
+        mActiveTileType = currentTileType;
+    }
+
+    public TileGrid(RoomTemplate template, TileType currentTileType) {
+        fillGridFromTemplate(template);
+        mHash = computeContentHash();
 
         mActiveTileType = currentTileType;
     }
 
     public TileGrid(File file, SerializationFormat format, TileType currentTileType) {
-        deserialize(file, format);
+        this(file, format, currentTileType, IOProgress.NONE);
+    }
+
+    /**
+     * Loads a room, reporting how far through the file it is. Safe to call off the EDT: the grid isn't shared with
+     * anything until the constructor returns.
+     */
+    public TileGrid(File file, SerializationFormat format, TileType currentTileType, IOProgress progress) {
+        deserialize(file, format, progress);
+        mHash = computeContentHash();
 
         mActiveTileType = currentTileType;
     }
 
-    private Tile[] InitTiles() {
-        Tile[] tiles = new Tile[mWidth * mHeight];
+    /**
+     * Copies the tiles and metadata of another grid. Edit history and dirty region start out empty.
+     */
+    private TileGrid(TileGrid other) {
+        mWidth = other.mWidth;
+        mHeight = other.mHeight;
+        mTypes = other.mTypes.copy();
 
-        for (int y = 0; y < mHeight; y++) {
-            for (int x = 0; x < mWidth; x++) {
-                int index = x + y * mWidth;
-                tiles[index] = new Tile(index, TileType.Floor);
-            }
-        }
+        other.mNests.forEach((index, nest) -> mNests.put(index, nest.copy()));
+        other.mPOIs.forEach((index, poi) -> mPOIs.put(index, poi.copy()));
+        other.mDoors.forEach((index, door) -> mDoors.put(index, door.copy()));
+        mHash = other.mHash;
 
-        setDefaultBorderWalls(tiles);
+        mActiveTileType = other.mActiveTileType;
+    }
 
-        return tiles;
+    /**
+     * Returns an independent copy of the room as it is now, e.g. for saving on another thread while this grid keeps
+     * being edited.
+     */
+    public TileGrid snapshot() {
+        return new TileGrid(this);
     }
 
-    private void setDefaultBorderWalls() {
-        setDefaultBorderWalls(mTiles);
+    private TilePlane InitTiles() {
+        TilePlane tiles = createPlane(mWidth, mHeight);
+        tiles.fill(TileType.Floor.toOrdinal());
+
+        setDefaultBorderWalls(tiles);
+
+        return tiles;
     }
 
-    private void setDefaultBorderWalls(Tile[] tiles) {
-        for (int x = 0; x < mWidth; ++x) {
-            tiles[x].setTileType(TileType.Wall);
-            tiles[mHeight * mWidth - x - 1].setTileType(TileType.Wall);
+    private static TilePlane createPlane(int width, int height) {
+        long size = (long) width * height;
+        if (width <= 0 || height <= 0 || size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("Illegal grid dimensions %dx%d!", width, height));
         }
 
-        for (int y = 0; y < mHeight; ++y) {
-            tiles[y * mWidth].setTileType(TileType.Wall);
-            tiles[(y + 1) * mWidth - 1].setTileType(TileType.Wall);
-        }
+        return size > PACKED_TILE_LIMIT ? new ChunkedTilePlane(width, height) : new PackedTilePlane((int) size);
     }
 
-    /**
-     * Returns the border indices in no particular order.
-     */
-    private int[] getBorderIndices() {
-        int[] indices = new int[(mWidth * 2) + ((mHeight - 2) * 2)];
-        int index = 0;
+    private void setDefaultBorderWalls(TilePlane tiles) {
+        byte wall = TileType.Wall.toOrdinal();
 
-        for (int x = 0; x < mWidth; x++) {
-            indices[index++] = x;
-            indices[index++] = (mWidth * mHeight) - x - 1;
+        for (int x = 0; x < mWidth; ++x) {
+            tiles.set(x, wall);
+            tiles.set(mHeight * mWidth - x - 1, wall);
         }
 
-        for (int y = 1; y < mHeight - 1; y++) {
-            indices[index++] = y * mWidth;
-            indices[index++] = (y + 1) * mWidth - 1;
+        for (int y = 0; y < mHeight; ++y) {
+            tiles.set(y * mWidth, wall);
+            tiles.set((y + 1) * mWidth - 1, wall);
         }
-
-        return indices;
     }
 
     private boolean isIndexOnBorder(int index) {
@@ -94,12 +171,27 @@ public class TileGrid {
     }
 
 
+    /**
+     * Reverts every tile to floor inside a wall border. Recorded like any other edit, so it can be undone; the
+     * metadata of the replaced nests, POIs and doors goes with their tiles.
+     */
     public void clear() {
-        // Revert tile types to floor
-        for (Tile tile : mTiles) {
-            tile.setTileType(TileType.Floor);
-            setDefaultBorderWalls();
+        beginEdit();
+        try {
+            for (int y = 0; y < mHeight; y++) {
+                if (y == 0 || y == mHeight - 1) {
+                    fillSpan(y, 0, mWidth - 1, TileType.Wall);
+                } else {
+                    fillSpan(y, 0, 0, TileType.Wall);
+                    fillSpan(y, 1, mWidth - 2, TileType.Floor);
+                    fillSpan(y, mWidth - 1, mWidth - 1, TileType.Wall);
+                }
+            }
+        } finally {
+            endEdit();
         }
+
+        mTypes.compact();
     }
 
     // vvv getters and setters vvv
@@ -116,13 +208,301 @@ public class TileGrid {
         return mHeight;
     }
 
-    public Color[] getTileColors() {
-        return Arrays.stream(mTiles).map((Tile::getColor)).toArray(Color[]::new);
+    public TileType getTileType(int index) {
+        return TileType.fromOrdinal(mTypes.get(index));
+    }
+
+    /**
+     * Returns the previous type. Metadata belonging to the previous type is dropped.
+     */
+    public TileType setTileType(int index, TileType type) {
+        TileType old = getTileType(index);
+        if (old == type) return old;
+
+        mTypes.set(index, type.toOrdinal());
+        mHash ^= ContentHash.ofTile(index, old.toOrdinal()) ^ ContentHash.ofTile(index, type.toOrdinal());
+        mHistory.tilesChanged(index, 1, old.toOrdinal(), type.toOrdinal());
+        removeMetadata(index, old);
+        mValidator.tileChanged(index, old, type);
+        mReachability.tileChanged(index, old, type);
+        markDirty(index);
+        if (mJournal != null) mJournal.tilesWritten(index, 1, type.toOrdinal());
+
+        return old;
+    }
+
+    public boolean isValid() {
+        return mValidator.isValid();
+    }
+
+    /**
+     * Number of border tiles that currently keep the board from being saved.
+     */
+    public int getInvalidTileCount() {
+        return mValidator.getInvalidTileCount();
+    }
+
+    /**
+     * Indices of the offending border tiles, in ascending order.
+     */
+    public int[] getInvalidTiles() {
+        return mValidator.findInvalidBorderTiles();
+    }
+
+    /**
+     * Writes the packed RGB color of each tile in the given region (in tiles) into dest, row by row, with the same
+     * layout as {@link java.awt.image.BufferedImage#getRGB(int, int, int, int, int[], int, int)}.
+     */
+    public void getTileRGB(Rectangle region, int[] dest, int offset, int stride) {
+        getTileRGB(region.x, region.y, region.width, region.height, TILE_RGB, dest, offset, stride);
+    }
+
+    /**
+     * Render view of the grid: maps each tile in the region through the palette, indexed by type ordinal (see
+     * {@link TileType#createRGBPalette()}), straight from the tile plane into dest. Allocates nothing.
+     */
+    public void getTileRGB(int x, int y, int width, int height, int[] palette, int[] dest, int offset, int stride) {
+        for (int row = y; row < y + height; row++) {
+            int from = x + row * mWidth;
+            mTypes.mapRow(from, from + width, palette, dest, offset + (row - y) * stride);
+        }
+    }
+
+    /**
+     * Copies the type ordinals of row y into dest, which must hold at least a row.
+     */
+    void copyRow(int y, byte[] dest) {
+        int from = y * mWidth;
+        mTypes.copyRow(from, from + mWidth, dest, 0);
+    }
+
+    // vvv reachability vvv
+
+    /**
+     * Steps from the nearest door to the tile, walking four ways across Floor and through Doors, or -1 if no door
+     * reaches it. Nests, treasure, POIs and portals can be stepped onto but not walked through. The first call works
+     * out the distances of the whole room; later calls only redo what the edits since could have changed.
+     */
+    public int getDoorDistance(int index) {
+        return mReachability.getDistance(index);
+    }
+
+    /**
+     * The largest distance of any tile from its nearest door, or 0 if no tile is reachable.
+     */
+    public int getMaxDoorDistance() {
+        return mReachability.getMaxDistance();
+    }
+
+    /**
+     * Indices of the nests, treasure, POIs and portals that no door reaches, in ascending order.
+     */
+    public int[] getUnreachableTiles() {
+        return mReachability.findUnreachableTargets();
+    }
+
+    /**
+     * Indices of the doors that can't be walked to from the first door, in ascending order. Empty when every door can
+     * reach every other one.
+     */
+    public int[] getDisconnectedDoors() {
+        return mReachability.findDisconnectedDoors();
+    }
+
+    // vvv change tracking vvv
+
+    /**
+     * Returns the bounding box, in tiles, of everything that changed since the last call, or null if nothing did.
+     */
+    public Rectangle takeDirtyRegion() {
+        if (mDirtyMaxX < 0) return null;
+
+        Rectangle region = new Rectangle(mDirtyMinX, mDirtyMinY, mDirtyMaxX - mDirtyMinX + 1, mDirtyMaxY - mDirtyMinY + 1);
+        mDirtyMaxX = -1;
+
+        return region;
+    }
+
+    private void markDirty(int index) {
+        int x = index % mWidth;
+        int y = index / mWidth;
+
+        markDirty(x, y, x, y);
+    }
+
+    private void markDirty(int minX, int minY, int maxX, int maxY) {
+        if (mDirtyMaxX < 0) {
+            mDirtyMinX = minX; mDirtyMaxX = maxX;
+            mDirtyMinY = minY; mDirtyMaxY = maxY;
+        } else {
+            mDirtyMinX = Math.min(mDirtyMinX, minX);
+            mDirtyMaxX = Math.max(mDirtyMaxX, maxX);
+            mDirtyMinY = Math.min(mDirtyMinY, minY);
+            mDirtyMaxY = Math.max(mDirtyMaxY, maxY);
+        }
+    }
+
+    private void markAllDirty() {
+        mDirtyMinX = 0;
+        mDirtyMinY = 0;
+        mDirtyMaxX = mWidth - 1;
+        mDirtyMaxY = mHeight - 1;
+    }
+
+    // vvv sparse metadata vvv
+
+    Tile.Nest getNest(int index) {
+        return mNests.computeIfAbsent(index, i -> new Tile.Nest());
+    }
+
+    Tile.POI getPOI(int index) {
+        return mPOIs.computeIfAbsent(index, i -> new Tile.POI());
+    }
+
+    Tile.Door getDoor(int index) {
+        return mDoors.computeIfAbsent(index, i -> new Tile.Door());
+    }
+
+    /**
+     * Indices of all tiles with metadata, in ascending order.
+     */
+    int[] getMetadataIndices() {
+        int[] indices = new int[mNests.size() + mPOIs.size() + mDoors.size()];
+
+        int count = 0;
+        for (int index : mNests.keySet()) indices[count++] = index;
+        for (int index : mPOIs.keySet()) indices[count++] = index;
+        for (int index : mDoors.keySet()) indices[count++] = index;
+
+        Arrays.sort(indices);
+        return indices;
+    }
+
+    /**
+     * Gives a tile the given metadata, which the grid takes ownership of, as part of the current edit. Ignored unless
+     * the tile is of the matching type.
+     */
+    void setMetadata(int index, Object metadata) {
+        Object before = findMetadata(index);
+        if (before == null) before = Tile.createMetadata(getTileType(index));
+        if (before == null || before.getClass() != metadata.getClass()) return;
+
+        putMetadata(index, metadata);
+        mHistory.metadataChanged(index, before);
+        markDirty(index);
+    }
+
+    private void removeMetadata(int index, TileType type) {
+        Object removed;
+        switch (type) {
+            case Nest:
+                removed = mNests.remove(index);
+                break;
+            case POI:
+                removed = mPOIs.remove(index);
+                break;
+            case Door:
+                removed = mDoors.remove(index);
+                break;
+            default:
+                return;
+        }
+
+        if (removed == null) return;
+
+        // Kept by the history so that undoing the edit brings the same fields back
+        mHash ^= ContentHash.ofMetadata(index, removed);
+        mHistory.metadataChanged(index, removed);
+    }
+
+    /**
+     * Puts recorded metadata back. Whatever it replaces is handed to the history, so the step can be reversed again.
+     */
+    private void restoreMetadata(EditHistory.MetadataList metadata) {
+        // A tile can be recorded more than once in one step; the first record is the one to end up with
+        for (int i = metadata.size() - 1; i >= 0; i--) {
+            int index = metadata.getIndex(i);
+            Object value = metadata.getValue(i);
+
+            Object replaced = putMetadata(index, value);
+            if (replaced != null && replaced != value) mHistory.metadataChanged(index, replaced);
+        }
+    }
+
+    /**
+     * Sets the metadata of a tile, if the tile is of the matching type. Returns what it replaced, if anything.
+     */
+    private Object putMetadata(int index, Object value) {
+        // Metadata that only existed partway through an edit has no tile of its type to go back to
+        TileType type = getTileType(index);
+
+        Object replaced = null;
+        if (value instanceof Tile.Nest && type == TileType.Nest) {
+            replaced = mNests.put(index, (Tile.Nest) value);
+        } else if (value instanceof Tile.POI && type == TileType.POI) {
+            replaced = mPOIs.put(index, (Tile.POI) value);
+        } else if (value instanceof Tile.Door && type == TileType.Door) {
+            replaced = mDoors.put(index, (Tile.Door) value);
+        } else {
+            return null;
+        }
+
+        mHash ^= ContentHash.ofMetadata(index, replaced) ^ ContentHash.ofMetadata(index, value);
+        if (mJournal != null) mJournal.metadataWritten(index, value);
+        return replaced;
+    }
+
+    /**
+     * The nest, POI or door of a tile, or null if it has none yet. Unlike the getters, never creates one.
+     */
+    Object findMetadata(int index) {
+        switch (getTileType(index)) {
+            case Nest:
+                return mNests.get(index);
+            case POI:
+                return mPOIs.get(index);
+            case Door:
+                return mDoors.get(index);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Changes the fields of a tile's nest as an undoable step. Successive changes to one tile fold into a single
+     * step, so typing a value is undone in one go, and changes that leave the fields as they were are not recorded.
+     */
+    void editNest(int index, Consumer<Tile.Nest> change) {
+        Tile.Nest nest = getNest(index), before = nest.copy();
+        change.accept(nest);
+        if (!nest.sameAs(before)) recordMetadataEdit(index, before, nest);
+    }
+
+    void editPOI(int index, Consumer<Tile.POI> change) {
+        Tile.POI poi = getPOI(index), before = poi.copy();
+        change.accept(poi);
+        if (!poi.sameAs(before)) recordMetadataEdit(index, before, poi);
+    }
+
+    void editDoor(int index, Consumer<Tile.Door> change) {
+        Tile.Door door = getDoor(index), before = door.copy();
+        change.accept(door);
+        if (!door.sameAs(before)) recordMetadataEdit(index, before, door);
+    }
+
+    private void recordMetadataEdit(int index, Object before, Object after) {
+        mHash ^= ContentHash.ofMetadata(index, before) ^ ContentHash.ofMetadata(index, after);
+        if (mJournal != null) mJournal.metadataWritten(index, after);
+        if (mHistory.isLastMetadataEdit(index)) return;
+
+        beginEdit();
+        mHistory.metadataChanged(index, before);
+        endEdit();
     }
 
     // vvv neighbors vvv
 
-    private int[] getNeighbors(int index) {
+    int[] getNeighbors(int index) {
         int[] neighbors = new int[4];
         int neighborsAdded = 0;
 
@@ -135,7 +515,7 @@ public class TileGrid {
             neighbors[neighborsAdded++] = index + 1;
         }
         // South
-        if (index <= mTiles.length - mWidth - 1) {
+        if (index <= mTypes.size() - mWidth - 1) {
             neighbors[neighborsAdded++] = index + mWidth;
         }
         // West
@@ -153,7 +533,7 @@ public class TileGrid {
         return actualNeighbors;
     }
 
-    private int[] getNeighborsWithDiagonals(int index) {
+    int[] getNeighborsWithDiagonals(int index) {
         // Get normal neighbors
         int[] cardinalNeighbors = getNeighbors(index);
 
@@ -166,11 +546,11 @@ public class TileGrid {
             neighbors[neighborsAdded++] = index - mWidth + 1;
         }
         // Southeast
-        if (index < mTiles.length - mWidth - 1 && (index % mWidth) < mWidth - 1) {
+        if (index < mTypes.size() - mWidth - 1 && (index % mWidth) < mWidth - 1) {
             neighbors[neighborsAdded++] = index + mWidth + 1;
         }
         // Southwest
-        if (index < mTiles.length - mWidth - 1 && (index % mWidth) > 0) {
+        if (index < mTypes.size() - mWidth - 1 && (index % mWidth) > 0) {
             neighbors[neighborsAdded++] = index + mWidth - 1;
         }
         // Northwest
@@ -188,143 +568,743 @@ public class TileGrid {
             allNeighbors[i++] = neighbors[j];
         }
 
-        return allNeighbors;
+        return allNeighbors;
+    }
+
+    // vvv user interaction vvv
+
+    private int getTileIndexFromMouseClick(Point click, double scale, Point topLeftOfGrid) {
+        if (isClickNotOnGrid(click, scale, topLeftOfGrid)) return -1;
+
+        return getTileIndexFromMouseClickUnchecked(click, scale, topLeftOfGrid);
+    }
+
+    /**
+     * The scale is in pixels per tile and may be below 1 when the view is zoomed out.
+     */
+    private int getTileIndexFromMouseClickUnchecked(Point click, double scale, Point topLeftOfGrid) {
+        int startX = topLeftOfGrid.x;
+        int startY = topLeftOfGrid.y;
+
+        int x = (int) ((click.x - startX) / scale);
+        int y = (int) ((click.y - startY) / scale);
+
+        return x + y * mWidth;
+    }
+
+    private boolean isClickNotOnGrid(Point click, double scale, Point topLeftOfGrid) {
+        int clickX = click.x - topLeftOfGrid.x;
+        int clickY = click.y - topLeftOfGrid.y;
+        return scale <= 0 || clickX < 0 || clickX / scale >= mWidth || clickY < 0 || clickY / scale >= mHeight;
+    }
+
+    /**
+     * Tile coordinates under a click. Unlike the index lookups these are not clamped, so they may lie off the grid.
+     */
+    public Point getTileCoordinates(Point click, double scale, Point topLeftOfGrid) {
+        return new Point(
+                (int) Math.floor((click.x - topLeftOfGrid.x) / scale),
+                (int) Math.floor((click.y - topLeftOfGrid.y) / scale)
+        );
+    }
+
+    public Tile getTileAt(Point click, double scale, Point topLeftOfGrid) {
+        int index = getTileIndexFromMouseClick(click, scale, topLeftOfGrid);
+        return (index != -1) ? new Tile(this, index) : null;
+    }
+
+    // vvv undo and redo vvv
+
+    /**
+     * Groups every change until the matching {@link #endEdit()} into one undo step, e.g. a whole brush stroke. Calls
+     * may nest; only the outermost pair counts. Changes made outside of any group are not recorded.
+     */
+    public void beginEdit() {
+        mHistory.beginEdit();
+    }
+
+    public void endEdit() {
+        mHistory.endEdit();
+    }
+
+    public boolean canUndo() {
+        return mHistory.canUndo();
+    }
+
+    public boolean canRedo() {
+        return mHistory.canRedo();
+    }
+
+    /**
+     * Reverts the last recorded edit. Returns false if there was nothing to undo.
+     */
+    public boolean undo() {
+        if (mHistory.isEditing()) throw new IllegalStateException("Can't undo in the middle of an edit!");
+
+        EditHistory.Entry entry = mHistory.startUndo();
+        if (entry == null) return false;
+
+        // Backwards, so a tile changed twice in one edit ends up with its first old type
+        for (int run = entry.getRunCount() - 1; run >= 0; run--) {
+            writeRun(entry.getStart(run), entry.getLength(run), entry.getOldType(run));
+        }
+        restoreMetadata(entry.mBefore);
+
+        mHistory.finishUndo();
+        return true;
+    }
+
+    /**
+     * Re-applies the last undone edit. Returns false if there was nothing to redo.
+     */
+    public boolean redo() {
+        if (mHistory.isEditing()) throw new IllegalStateException("Can't redo in the middle of an edit!");
+
+        EditHistory.Entry entry = mHistory.startRedo();
+        if (entry == null) return false;
+
+        for (int run = 0; run < entry.getRunCount(); run++) {
+            writeRun(entry.getStart(run), entry.getLength(run), entry.getNewType(run));
+        }
+        restoreMetadata(entry.mAfter);
+
+        return true;
+    }
+
+    /**
+     * Caps the memory the undo history may use. The oldest steps are dropped to stay under it.
+     */
+    public void setHistoryBudget(long bytes) {
+        mHistory.setBudget(bytes);
+    }
+
+    /**
+     * Approximate memory held by the undo history, in bytes.
+     */
+    public long getHistoryBytes() {
+        return mHistory.getBytes();
+    }
+
+    /**
+     * Approximate memory held by the room: its tiles, metadata, validity and reachability bookkeeping and undo
+     * history, in bytes.
+     */
+    public long getMemoryBytes() {
+        long metadata = (long) (mNests.size() + mPOIs.size() + mDoors.size()) * METADATA_BYTES;
+
+        // The validator keeps a few bit sets over the whole grid
+        return mTypes.getMemoryBytes() + mTypes.size() / 2 + metadata + mReachability.getMemoryBytes()
+                + mHistory.getBytes();
+    }
+
+    // vvv content hash vvv
+
+    /**
+     * 64-bit hash of the dimensions, tiles and metadata, updated with every change, so it costs nothing to read. Rooms
+     * with the same content have the same hash, whichever way they got there; rooms with different hashes differ.
+     * Metadata left at its default values hashes the same as none. Not stable across versions of the editor, so the
+     * copy stored in saved files is only a label; nothing reads it back as proof of what a file holds.
+     */
+    public long getContentHash() {
+        return mHash;
+    }
+
+    /**
+     * True if the other grid holds exactly the same room. Rooms with different hashes are told apart at once; equal
+     * hashes are confirmed tile by tile.
+     */
+    public boolean sameContentAs(TileGrid other) {
+        if (other == this) return true;
+        if (mHash != other.mHash || mWidth != other.mWidth || mHeight != other.mHeight) return false;
+
+        int size = mTypes.size();
+        for (int index = 0; index < size; index++) {
+            if (mTypes.get(index) != other.mTypes.get(index)) return false;
+
+            // Missing metadata counts as the defaults, as it does everywhere else
+            switch (getTileType(index)) {
+                case Nest:
+                    if (!getNestOrDefault(index).sameAs(other.getNestOrDefault(index))) return false;
+                    break;
+                case POI:
+                    if (!getPOIOrDefault(index).sameAs(other.getPOIOrDefault(index))) return false;
+                    break;
+                case Door:
+                    if (!getDoorOrDefault(index).sameAs(other.getDoorOrDefault(index))) return false;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return true;
+    }
+
+    private Tile.Nest getNestOrDefault(int index) {
+        Tile.Nest nest = mNests.get(index);
+        return nest != null ? nest : new Tile.Nest();
+    }
+
+    private Tile.POI getPOIOrDefault(int index) {
+        Tile.POI poi = mPOIs.get(index);
+        return poi != null ? poi : new Tile.POI();
+    }
+
+    private Tile.Door getDoorOrDefault(int index) {
+        Tile.Door door = mDoors.get(index);
+        return door != null ? door : new Tile.Door();
+    }
+
+    private long computeContentHash() {
+        long hash = ContentHash.ofDimensions(mWidth, mHeight);
+
+        // Floor tiles hash to 0, so only the others need mixing
+        byte floor = TileType.Floor.toOrdinal();
+        int size = mTypes.size();
+        for (int index = 0; index < size; index++) {
+            byte type = mTypes.get(index);
+            if (type != floor) hash ^= ContentHash.ofTile(index, type);
+        }
+
+        for (Map.Entry<Integer, Tile.Nest> nest : mNests.entrySet()) {
+            hash ^= ContentHash.ofMetadata(nest.getKey(), nest.getValue());
+        }
+        for (Map.Entry<Integer, Tile.POI> poi : mPOIs.entrySet()) {
+            hash ^= ContentHash.ofMetadata(poi.getKey(), poi.getValue());
+        }
+        for (Map.Entry<Integer, Tile.Door> door : mDoors.entrySet()) {
+            hash ^= ContentHash.ofMetadata(door.getKey(), door.getValue());
+        }
+
+        return hash;
+    }
+
+    /**
+     * Sets length tiles from start on, all in one row, to the given type, recording them if an edit is open.
+     */
+    void writeRun(int start, int length, byte type) {
+        int y = start / mWidth;
+        int x = start - y * mWidth;
+
+        fillSpan(y, x, x + length - 1, TileType.fromOrdinal(type));
+    }
+
+    // vvv autosave vvv
+
+    /**
+     * Sends every change from now on to the journal, or stops sending them when null.
+     */
+    void setJournal(AutosaveJournal journal) {
+        mJournal = journal;
+    }
+
+    /**
+     * Applies a run read back from a journal, like undo does: no history is recorded.
+     */
+    void replayRun(int start, int length, byte type) {
+        if (!TileType.isValidOrdinal(type) || length <= 0 || start < 0 || start % mWidth + length > mWidth
+                || start >= mTypes.size()) {
+            throw new IllegalArgumentException("Autosave run out of range: " + start + "+" + length);
+        }
+        writeRun(start, length, type);
+    }
+
+    void replayMetadata(int index, Object metadata) {
+        putMetadata(checkIndex(index), metadata);
+    }
+
+    /**
+     * Called once a replay is over, to release chunks it left uniform.
+     */
+    void finishReplay() {
+        mTypes.compact();
+        markAllDirty();
+    }
+
+    // vvv bulk edits vvv
+
+    /**
+     * Sets every tile in the rectangle (in tiles) to the active type, a row at a time. Whatever part of the rectangle
+     * falls off the grid is skipped. Returns the number of tiles that changed.
+     */
+    public int fillRect(Rectangle tiles) {
+        int minX = Math.max(tiles.x, 0), maxX = Math.min(tiles.x + tiles.width, mWidth) - 1;
+        int minY = Math.max(tiles.y, 0), maxY = Math.min(tiles.y + tiles.height, mHeight) - 1;
+
+        int changed = 0;
+        beginEdit();
+        try {
+            for (int y = minY; y <= maxY; y++) {
+                changed += fillSpan(y, minX, maxX, mActiveTileType);
+            }
+        } finally {
+            endEdit();
+        }
+
+        return changed;
+    }
+
+    /**
+     * Sets every tile on the straight line between two tile coordinates, both ends included, to the active type.
+     * Whatever part of the line falls off the grid is skipped.
+     */
+    public void paintLine(int x0, int y0, int x1, int y1) {
+        int dx = Math.abs(x1 - x0), dy = -Math.abs(y1 - y0);
+        int stepX = x0 < x1 ? 1 : -1, stepY = y0 < y1 ? 1 : -1;
+        int error = dx + dy;
+
+        beginEdit();
+        try {
+            // Bresenham, stepping one tile at a time along both axes
+            while (true) {
+                if (x0 >= 0 && x0 < mWidth && y0 >= 0 && y0 < mHeight) {
+                    setTileType(x0 + y0 * mWidth, mActiveTileType);
+                }
+
+                if (x0 == x1 && y0 == y1) break;
+
+                int doubled = 2 * error;
+                if (doubled >= dy) { error += dy; x0 += stepX; }
+                if (doubled <= dx) { error += dx; y0 += stepY; }
+            }
+        } finally {
+            endEdit();
+        }
+    }
+
+    /**
+     * Replaces the 4-connected area of same-typed tiles around (x, y) with the active type. Returns the number of
+     * tiles that changed.
+     */
+    public int floodFill(int x, int y) {
+        if (x < 0 || x >= mWidth || y < 0 || y >= mHeight) return 0;
+
+        byte target = mTypes.get(x + y * mWidth);
+        if (target == mActiveTileType.toOrdinal()) return 0;
+
+        // Scanline fill: every seed grows into the whole horizontal run it sits in, which is filled in one go, and
+        // the rows above and below it get one new seed per run of target tiles they hold
+        IntQueue seeds = new IntQueue();
+        seeds.add(x + y * mWidth);
+
+        int changed = 0;
+        beginEdit();
+        try {
+            while (!seeds.isEmpty()) {
+                int seed = seeds.poll();
+                int row = seed / mWidth, rowStart = row * mWidth;
+
+                // An earlier span may already have covered this seed
+                if (mTypes.get(seed) != target) continue;
+
+                int left = seed - rowStart, right = left;
+                while (left > 0 && mTypes.get(rowStart + left - 1) == target) left--;
+                while (right < mWidth - 1 && mTypes.get(rowStart + right + 1) == target) right++;
+
+                changed += fillSpan(row, left, right, mActiveTileType);
+
+                if (row > 0) addSeeds(seeds, rowStart - mWidth, left, right, target);
+                if (row < mHeight - 1) addSeeds(seeds, rowStart + mWidth, left, right, target);
+            }
+        } finally {
+            endEdit();
+        }
+
+        return changed;
+    }
+
+    private void addSeeds(IntQueue seeds, int rowStart, int left, int right, byte target) {
+        boolean inRun = false;
+
+        for (int x = left; x <= right; x++) {
+            boolean matches = mTypes.get(rowStart + x) == target;
+            if (matches && !inRun) seeds.add(rowStart + x);
+            inRun = matches;
+        }
+    }
+
+    /**
+     * Sets tiles minX to maxX (inclusive) of one row to the given type with a single bulk write, keeping the
+     * metadata, validator and dirty region in step. Returns the number of tiles that changed.
+     */
+    private int fillSpan(int y, int minX, int maxX, TileType type) {
+        if (minX > maxX) return 0;
+
+        int rowStart = y * mWidth;
+        byte ordinal = type.toOrdinal();
+        boolean hasMetadata = !mNests.isEmpty() || !mPOIs.isEmpty() || !mDoors.isEmpty();
+
+        int changed = 0;
+        int runStart = -1; byte runType = 0;
+        for (int index = rowStart + minX; index <= rowStart + maxX; index++) {
+            byte old = mTypes.get(index);
+
+            // The history gets whole runs of tiles that had the same type, not single tiles
+            if (runStart >= 0 && old != runType) {
+                mHistory.tilesChanged(runStart, index - runStart, runType, ordinal);
+                runStart = -1;
+            }
+
+            if (old == ordinal) continue;
+
+            if (runStart < 0) {
+                runStart = index;
+                runType = old;
+            }
+
+            TileType oldType = TileType.fromOrdinal(old);
+            if (hasMetadata) removeMetadata(index, oldType);
+            mHash ^= ContentHash.ofTile(index, old) ^ ContentHash.ofTile(index, ordinal);
+            mValidator.tileChanged(index, oldType, type);
+            mReachability.tileChanged(index, oldType, type);
+            changed++;
+        }
+
+        if (runStart >= 0) mHistory.tilesChanged(runStart, rowStart + maxX + 1 - runStart, runType, ordinal);
+        if (changed == 0) return 0;
+
+        mTypes.fillRow(rowStart + minX, rowStart + maxX + 1, ordinal);
+        markDirty(minX, y, maxX, y);
+        if (mJournal != null) mJournal.tilesWritten(rowStart + minX, maxX - minX + 1, ordinal);
+
+        return changed;
+    }
+
+    // vvv (de)serialization vvv
+
+    /**
+     * Only re-checks the parts of the board touched since the last check.
+     */
+    private void throwIfBoardIsInvalid() throws InvalidBoardException {
+        mValidator.throwIfInvalid();
+    }
+
+    public void serialize(File saveFile, SerializationFormat format) throws RuntimeException {
+        serialize(saveFile, format, IOProgress.NONE);
+    }
+
+    /**
+     * Writes the room to a temporary file next to saveFile and moves it into place once complete, so a failed or
+     * cancelled save leaves any previous file untouched.
+     */
+    public void serialize(File saveFile, SerializationFormat format, IOProgress progress) throws RuntimeException {
+        // Ensure that the board is valid
+        throwIfBoardIsInvalid();
+
+        Path target = saveFile.toPath().toAbsolutePath();
+        Path temp = null;
+        boolean moved = false;
+
+        try {
+            // Same directory, so the move is a rename; created like any other file, so it gets the usual permissions
+            temp = target.resolveSibling(target.getFileName() + ".tmp");
+
+            try (OutputStream out = new ProgressOutputStream(Files.newOutputStream(temp), progress)) {
+                switch (format) {
+                    case JSON:
+                        serializeJson(out);
+                        break;
+                    case BINARY:
+                        serializeBinary(out);
+                        break;
+                    case JSON_COMPACT:
+                        serializeJsonCompact(out);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Invalid SerializationFormat in serialize()!");
+                }
+            }
+
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (temp != null && !moved) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // Nothing more to do about a stray temp file
+                }
+            }
+        }
+    }
+
+    /**
+     * Streams the grid out in the RoomTemplate schema, pretty-printed the way Gson prints a RoomTemplate, without
+     * building the template or the JSON string in memory.
+     */
+    private void serializeJson(OutputStream out) throws RuntimeException {
+        // Parse the nests before writing anything
+        checkNestsParse();
+
+        try (JsonWriter writer = openJsonWriter(out)) {
+            writer.setIndent("  ");
+            writer.beginObject();
+
+            writeJsonDimensions(writer);
+            writer.name(SerializationFormat.CONTENT_HASH_FIELD).value(SerializationFormat.formatContentHash(mHash));
+
+            // Same field order as RoomTemplate
+            writeJsonIndices(writer, "walls", TileType.Wall);
+            writeJsonIndices(writer, "nones", TileType.None);
+
+            writeJsonNests(writer);
+            writeJsonPOIs(writer);
+            writeJsonIndices(writer, "treasures", TileType.Treasure);
+            writeJsonDoors(writer);
+
+            // Like Gson, leave the portal out entirely when there is none
+            int portal = nextIndexOfType(0, TileType.Portal);
+            if (portal >= 0) {
+                writer.name("portal").beginObject().name("index").value(portal).endObject();
+            }
+
+            writeJsonIndices(writer, "lavas", TileType.Lava);
+
+            writer.endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
-    // vvv user interaction vvv
+    /**
+     * Streams the grid out in the compact format, one run-length-encoded string per row.
+     */
+    private void serializeJsonCompact(OutputStream out) throws RuntimeException {
+        // Parse the nests before writing anything
+        checkNestsParse();
+
+        try (JsonWriter writer = openJsonWriter(out)) {
+            writer.setIndent("  ");
+            writer.beginObject();
+
+            // The version goes first so the loader can detect the format from the head of the file
+            writer.name(CompactRoomFormat.VERSION_FIELD).value(CompactRoomFormat.VERSION);
+            writeJsonDimensions(writer);
+            writer.name(SerializationFormat.CONTENT_HASH_FIELD).value(SerializationFormat.formatContentHash(mHash));
+
+            writer.name(CompactRoomFormat.ROWS_FIELD).beginArray();
+            StringBuilder row = new StringBuilder();
+            for (int y = 0; y < mHeight; y++) {
+                row.setLength(0);
+
+                for (int x = 0; x < mWidth; ) {
+                    byte type = mTypes.get(x + y * mWidth);
+                    int start = x;
+                    while (x < mWidth && mTypes.get(x + y * mWidth) == type) x++;
+
+                    if (row.length() > 0) row.append(CompactRoomFormat.RUN_SEPARATOR);
+                    if (x - start > 1) row.append(x - start);
+                    row.append(TileType.fromOrdinal(type).getSymbol());
+                }
 
-    public void handleMouseClick(Point click, int scale, Point topLeftOfGrid) {
-        // Make sure that invalid clicks don't continue
-        if (isClickNotOnGrid(click, scale, topLeftOfGrid)) return;
+                writer.value(row.toString());
+            }
+            writer.endArray();
 
-        // scale down x and y to calculate index
-        int index = getTileIndexFromMouseClick(click, scale, topLeftOfGrid);
+            writeJsonNests(writer);
+            writeJsonPOIs(writer);
+            writeJsonDoors(writer);
 
-        mTiles[index].setTileType(mActiveTileType);
+            writer.endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
-    private int getTileIndexFromMouseClick(Point click, int scale, Point topLeftOfGrid) {
-        if (isClickNotOnGrid(click, scale, topLeftOfGrid)) return -1;
-
-        return getTileIndexFromMouseClickUnchecked(click, scale, topLeftOfGrid);
+    private static JsonWriter openJsonWriter(OutputStream out) {
+        return new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16));
     }
 
-    private int getTileIndexFromMouseClickUnchecked(Point click, int scale, Point topLeftOfGrid) {
-        int startX = topLeftOfGrid.x;
-        int startY = topLeftOfGrid.y;
-
-        int x = (click.x - startX) / scale;
-        int y = (click.y - startY) / scale;
+    private void writeJsonDimensions(JsonWriter writer) throws IOException {
+        RoomTemplate.Dimensions dimensions = getRoomTemplateDimensions();
+        writer.name("dimensions").beginObject()
+                .name("width").value(dimensions.width)
+                .name("height").value(dimensions.height)
+                .name("tileSize").value(dimensions.tileSize)
+                .endObject();
+    }
 
-        return x + y * mWidth;
+    private void writeJsonNests(JsonWriter writer) throws IOException {
+        writer.name("enemyNests").beginArray();
+        for (int index = nextIndexOfType(0, TileType.Nest); index >= 0; index = nextIndexOfType(index + 1, TileType.Nest)) {
+            RoomTemplate.EnemyNest nest = createRoomTemplateNest(index);
+            writer.beginObject()
+                    .name("index").value(nest.index)
+                    .name("spawnRadius").value(nest.spawnRadius)
+                    .name("spawnChance").value(Float.valueOf(nest.spawnChance))
+                    .name("spawnAttemptsMin").value(nest.spawnAttemptsMin)
+                    .name("spawnAttemptsMax").value(nest.spawnAttemptsMax)
+                    .endObject();
+        }
+        writer.endArray();
     }
 
-    private boolean isClickNotOnGrid(Point click, int scale, Point topLeftOfGrid) {
-        int clickX = click.x - topLeftOfGrid.x;
-        int clickY = click.y - topLeftOfGrid.y;
-        return clickX < 0 || clickX > mWidth * scale || clickY < 0 || clickY > mHeight * scale;
+    private void writeJsonPOIs(JsonWriter writer) throws IOException {
+        writer.name("pois").beginArray();
+        for (int index = nextIndexOfType(0, TileType.POI); index >= 0; index = nextIndexOfType(index + 1, TileType.POI)) {
+            writer.beginObject()
+                    .name("index").value(index)
+                    .name("type").value(getPOI(index).type)
+                    .endObject();
+        }
+        writer.endArray();
     }
 
-    public Tile getTileAt(Point click, int scale, Point topLeftOfGrid) {
-        int index = getTileIndexFromMouseClick(click, scale, topLeftOfGrid);
-        return (index != -1) ? mTiles[index] : null;
+    private void writeJsonDoors(JsonWriter writer) throws IOException {
+        writer.name("doors").beginArray();
+        for (int index = nextIndexOfType(0, TileType.Door); index >= 0; index = nextIndexOfType(index + 1, TileType.Door)) {
+            writer.beginObject()
+                    .name("index").value(index)
+                    .name("direction").value(getDoor(index).direction)
+                    .endObject();
+        }
+        writer.endArray();
     }
 
-    // vvv (de)serialization vvv
+    /**
+     * Writes an array of {"index": n} objects for every tile of the given type.
+     */
+    private void writeJsonIndices(JsonWriter writer, String name, TileType type) throws IOException {
+        writer.name(name).beginArray();
+        for (int index = nextIndexOfType(0, type); index >= 0; index = nextIndexOfType(index + 1, type)) {
+            writer.beginObject().name("index").value(index).endObject();
+        }
+        writer.endArray();
+    }
 
-    private void throwIfBoardIsInvalid() throws RuntimeException {
-        // Strategy: iterate border tiles, continue if Wall; if None, dfs for walls; any other tile found is invalid
-        int[] borderIndices = getBorderIndices();
+    /**
+     * Returns the first index at or after from holding the given type, or -1 if there is none.
+     */
+    int nextIndexOfType(int from, TileType type) {
+        return mTypes.indexOf(type.toOrdinal(), from);
+    }
 
-        for (int index : borderIndices) {
-            Tile tile = mTiles[index];
-            switch (tile.getTileType()) {
-                case Wall:
-                case Door:
-                    // Fine - continue to the next
-                    break;
-                case None:
-                    // Search for invalid
-                    if (!isBorderTileEncasedByWallsOrDoors(index)) {
-                        throw new RuntimeException(String.format("Tile at index %d is not encased by walls!", index));
-                    }
-                    break;
-                default:
-                    // Bad!
-                    throw new RuntimeException(String.format("Tile at index %d contains invalid tile type %s", index, tile.getTileType()));
-            }
+    private void checkNestsParse() throws IllegalArgumentException {
+        for (Map.Entry<Integer, Tile.Nest> nest : mNests.entrySet()) {
+            nest.getValue().toTemplate(nest.getKey());
         }
     }
 
-    private boolean isBorderTileEncasedByWallsOrDoors(int index) {
-        Set<Integer> seen = new HashSet<>();
-        Stack<Integer> dfs = new Stack<>();
-        dfs.push(index);
 
-        // DFS nones starting at the index, stopping at walls and doors
-        while (!dfs.empty()) {
-            int tile = dfs.pop();
+    private void serializeBinary(OutputStream stream) throws RuntimeException {
+        int size = mTypes.size();
 
-            if (seen.contains(tile)) continue;
+        // One pass to count runs, so we know which plane encoding is smaller, and to find tiles with metadata
+        IntQueue nests = new IntQueue(), doors = new IntQueue(), pois = new IntQueue();
+        int portal = BinaryRoomFormat.NO_PORTAL;
+        int runs = 0;
+        long runBytes = 4;
 
-            seen.add(tile);
+        for (int index = 0; index < size; ) {
+            byte type = mTypes.get(index);
+            int start = index;
 
-            int[] neighbors = getNeighborsWithDiagonals(tile);
-            for (int neighbor : neighbors) {
-                // Pass if wall; push if none, else return
-                switch (mTiles[neighbor].getTileType()) {
-                    case Wall:
+            for (; index < size && mTypes.get(index) == type; index++) {
+                switch (TileType.fromOrdinal(type)) {
+                    case Nest:
+                        nests.add(index);
+                        break;
                     case Door:
+                        doors.add(index);
                         break;
-                    case None:
-                        if (!seen.contains(neighbor)) {
-                            dfs.push(neighbor);
-                        }
+                    case POI:
+                        pois.add(index);
+                        break;
+                    case Portal:
+                        portal = index;
                         break;
                     default:
-                        return false;
+                        break;
                 }
             }
+
+            runs++;
+            runBytes += 1 + BinaryRoomFormat.varIntSize(index - start);
         }
 
-        return true;
-    }
+        // Parse the nests before writing anything
+        List<RoomTemplate.EnemyNest> nestTemplates = new ArrayList<>(nests.size());
+        while (!nests.isEmpty()) {
+            nestTemplates.add(createRoomTemplateNest(nests.poll()));
+        }
 
-    public void serialize(File saveFile, SerializationFormat format) throws RuntimeException {
-        // Ensure that the board is valid
-        throwIfBoardIsInvalid();
+        byte encoding = runBytes < (size + 1) / 2 ? BinaryRoomFormat.ENCODING_RUNS : BinaryRoomFormat.ENCODING_NIBBLES;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+            // Header
+            out.writeInt(BinaryRoomFormat.MAGIC);
+            out.writeByte(BinaryRoomFormat.VERSION);
+            out.writeByte(encoding);
+            RoomTemplate.Dimensions dimensions = getRoomTemplateDimensions();
+            out.writeInt(dimensions.width);
+            out.writeInt(dimensions.height);
+            out.writeInt(dimensions.tileSize);
+            out.writeLong(mHash);
+
+            // Type plane
+            if (encoding == BinaryRoomFormat.ENCODING_RUNS) {
+                out.writeInt(runs);
+                for (int index = 0; index < size; ) {
+                    byte type = mTypes.get(index);
+                    int start = index;
+                    while (index < size && mTypes.get(index) == type) index++;
+
+                    out.writeByte(type);
+                    BinaryRoomFormat.writeVarInt(out, index - start);
+                }
+            } else {
+                for (int index = 0; index < size; index += 2) {
+                    int high = mTypes.get(index);
+                    int low = index + 1 < size ? mTypes.get(index + 1) : 0;
+                    out.writeByte((high << 4) | low);
+                }
+            }
 
-        switch (format) {
-            case JSON:
-                serializeJson(saveFile);
-                break;
-            default:
-                throw new IllegalArgumentException("Invalid SerializationFormat in serialize()!");
-        }
-    }
+            // Metadata
+            out.writeInt(nestTemplates.size());
+            for (RoomTemplate.EnemyNest nest : nestTemplates) {
+                out.writeInt(nest.index);
+                out.writeInt(nest.spawnRadius);
+                out.writeFloat(nest.spawnChance);
+                out.writeInt(nest.spawnAttemptsMin);
+                out.writeInt(nest.spawnAttemptsMax);
+            }
 
-    private void serializeJson(File saveFile) throws RuntimeException {
-        // Must create a room template from the tile data
-        RoomTemplate template = CreateRoomTemplate();
+            out.writeInt(doors.size());
+            while (!doors.isEmpty()) {
+                int index = doors.poll();
+                out.writeInt(index);
+                BinaryRoomFormat.writeString(out, getDoor(index).direction);
+            }
 
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        String str = gson.toJson(template);
+            out.writeInt(pois.size());
+            while (!pois.isEmpty()) {
+                int index = pois.poll();
+                out.writeInt(index);
+                BinaryRoomFormat.writeString(out, getPOI(index).type);
+            }
 
-        try {
-            FileWriter writer = new FileWriter(saveFile);
-            writer.write(str);
-            writer.close();
+            out.writeInt(portal);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException(e);
         }
     }
 
-
-    private RoomTemplate CreateRoomTemplate() throws RuntimeException {
+    /**
+     * Builds the full RoomTemplate object graph for the grid. Saving streams instead; this is for tools that want
+     * the object model.
+     */
+    public RoomTemplate CreateRoomTemplate() throws RuntimeException {
         RoomTemplate template = new RoomTemplate();
 
         // Create the dimensions first
         template.dimensions = getRoomTemplateDimensions();
+        template.contentHash = SerializationFormat.formatContentHash(mHash);
 
         // Iterate the tiles to find the rest
         ArrayList<RoomTemplate.Wall> walls = new ArrayList<>();
@@ -336,41 +1316,41 @@ public class TileGrid {
         ArrayList<RoomTemplate.Lava> lavas = new ArrayList<>(0);
         RoomTemplate.Portal portal = null;
 
-        for (Tile tile : mTiles) {
-            switch (tile.getTileType()) {
+        for (int index = 0; index < mTypes.size(); index++) {
+            switch (getTileType(index)) {
                 case None:
                     // Add a new none
-                    nones.add(createRoomTemplateNone(tile));
+                    nones.add(createRoomTemplateNone(index));
                 case Floor:
                     // Floors are inherent in the template
                     break;
                 case Wall:
                     // Add a new wall
-                    walls.add(createRoomTemplateWall(tile));
+                    walls.add(createRoomTemplateWall(index));
                     break;
                 case Nest:
                     // Add a new nest
-                    nests.add(createRoomTemplateNest(tile));
+                    nests.add(createRoomTemplateNest(index));
                     break;
                 case Treasure:
                     // Add a new treasure
-                    treasures.add(createRoomTemplateTreasure(tile));
+                    treasures.add(createRoomTemplateTreasure(index));
                     break;
                 case POI:
                     // Add a new POI
-                    pois.add(createRoomTemplatePOI(tile));
+                    pois.add(createRoomTemplatePOI(index));
                     break;
                 case Door:
                     // Add a new door
-                    doors.add(createRoomTemplateDoor(tile));
+                    doors.add(createRoomTemplateDoor(index));
                     break;
                 case Portal:
                     // Set the portal
-                    portal = new RoomTemplate.Portal(tile.getIndex());
+                    portal = new RoomTemplate.Portal(index);
                     break;
                 case Lava:
                     // Add a new lava
-                    lavas.add(createRoomTemplateLava(tile));
+                    lavas.add(createRoomTemplateLava(index));
 
             }
         }
@@ -397,81 +1377,548 @@ public class TileGrid {
         return dim;
     }
 
-    private RoomTemplate.EnemyNest createRoomTemplateNest(Tile tile) {
-        return tile.getEnemyNest();
+    private RoomTemplate.EnemyNest createRoomTemplateNest(int index) {
+        return getNest(index).toTemplate(index);
     }
 
-    private RoomTemplate.Treasure createRoomTemplateTreasure(Tile tile) {
+    private RoomTemplate.Treasure createRoomTemplateTreasure(int index) {
         RoomTemplate.Treasure treasure = new RoomTemplate.Treasure();
 
-        treasure.index = tile.getIndex();
+        treasure.index = index;
 
         return treasure;
     }
 
-    private RoomTemplate.POI createRoomTemplatePOI(Tile tile) {
-        return tile.getPOI();
+    private RoomTemplate.POI createRoomTemplatePOI(int index) {
+        return getPOI(index).toTemplate(index);
     }
 
-    private RoomTemplate.Wall createRoomTemplateWall(Tile tile) {
+    private RoomTemplate.Wall createRoomTemplateWall(int index) {
         RoomTemplate.Wall wall = new RoomTemplate.Wall();
 
-        wall.index = tile.getIndex();
+        wall.index = index;
 
         return wall;
     }
 
-    private RoomTemplate.None createRoomTemplateNone(Tile tile) {
+    private RoomTemplate.None createRoomTemplateNone(int index) {
         RoomTemplate.None none = new RoomTemplate.None();
 
-        none.index = tile.getIndex();
+        none.index = index;
 
         return none;
     }
 
-    private RoomTemplate.Door createRoomTemplateDoor(Tile tile) {
-        return tile.getDoor();
+    private RoomTemplate.Door createRoomTemplateDoor(int index) {
+        return getDoor(index).toTemplate(index);
     }
 
-    private RoomTemplate.Lava createRoomTemplateLava(Tile tile) {
+    private RoomTemplate.Lava createRoomTemplateLava(int index) {
         RoomTemplate.Lava lava = new RoomTemplate.Lava();
 
-        lava.index = tile.getIndex();
+        lava.index = index;
 
         return lava;
     }
 
-    private void deserialize(File loadFile, SerializationFormat format) {
+    private void deserialize(File loadFile, SerializationFormat format, IOProgress progress) {
         switch(format) {
             case JSON:
-                deserializeJson(loadFile);
+            case JSON_COMPACT:
+                // Both JSON flavors share an extension, so trust the contents over the caller
+                if (detectFormat(loadFile) == SerializationFormat.JSON_COMPACT) {
+                    deserializeJsonCompact(loadFile, progress);
+                } else {
+                    deserializeJson(loadFile, progress);
+                }
+                break;
+            case BINARY:
+                deserializeBinary(loadFile, progress);
                 break;
             default:
                 throw new IllegalArgumentException("Unimplemented SerializationFormat in deserialize()!");
         }
     }
 
-    private void deserializeJson(File loadFile) {
-        // Deserialize the contents of the file
-        RoomTemplate template;
+    /**
+     * Streams the file straight into the grid. Accepts anything Gson would read into a RoomTemplate, as long as the
+     * dimensions come before the tiles, which is always the case for files this editor writes.
+     */
+    private void deserializeJson(File loadFile, IOProgress progress) {
+        try (JsonReader reader = openJsonReader(loadFile, progress)) {
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+
+                if (name.equals("dimensions")) {
+                    setRoomTemplateDimensions(readJsonDimensions(reader));
+                    continue;
+                }
+
+                switch (name) {
+                    case "walls":
+                        readJsonIndices(reader, TileType.Wall, false);
+                        break;
+                    case "nones":
+                        readJsonIndices(reader, TileType.None, false);
+                        break;
+                    case "treasures":
+                        readJsonIndices(reader, TileType.Treasure, true);
+                        break;
+                    case "lavas":
+                        readJsonIndices(reader, TileType.Lava, false);
+                        break;
+                    case "enemyNests":
+                        readJsonNests(reader);
+                        break;
+                    case "pois":
+                        readJsonPOIs(reader);
+                        break;
+                    case "doors":
+                        readJsonDoors(reader);
+                        break;
+                    case "portal":
+                        checkDimensionsRead();
+                        setTileType(checkIndex(readJsonIndex(reader)), TileType.Portal);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+
+            reader.endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        checkDimensionsRead();
+
+        // Release chunks that the file left uniform
+        mTypes.compact();
+    }
+
+    private static JsonReader openJsonReader(File loadFile, IOProgress progress) throws IOException {
+        Path path = loadFile.toPath();
+        InputStream in = new ProgressInputStream(Files.newInputStream(path), Files.size(path), progress);
+        return new JsonReader(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16));
+    }
 
+    private static SerializationFormat detectFormat(File loadFile) {
         try {
-            Scanner scanner = new Scanner(loadFile);
-            StringBuilder data = new StringBuilder(128);
+            return SerializationFormat.detect(loadFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void deserializeJsonCompact(File loadFile, IOProgress progress) {
+        try (JsonReader reader = openJsonReader(loadFile, progress)) {
+            reader.beginObject();
 
-            while (scanner.hasNext()) {
-                data.append(scanner.nextLine());
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+
+                switch (name) {
+                    case CompactRoomFormat.VERSION_FIELD:
+                        int version = reader.nextInt();
+                        if (version > CompactRoomFormat.VERSION) {
+                            throw new IllegalArgumentException("Unsupported compact room version " + version);
+                        }
+                        break;
+                    case "dimensions":
+                        setRoomTemplateDimensions(readJsonDimensions(reader));
+                        break;
+                    case CompactRoomFormat.ROWS_FIELD:
+                        readJsonCompactRows(reader);
+                        break;
+                    case "enemyNests":
+                        readJsonNests(reader);
+                        break;
+                    case "pois":
+                        readJsonPOIs(reader);
+                        break;
+                    case "doors":
+                        readJsonDoors(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
             }
 
-            Gson gson = new Gson();
-            template = gson.fromJson(data.toString(), RoomTemplate.class);
+            reader.endObject();
         } catch (IOException e) {
-            e.printStackTrace();
-            return;
+            throw new UncheckedIOException(e);
         }
-        
-        // Fill grid
-        fillGridFromTemplate(template);
+
+        checkDimensionsRead();
+
+        // Release chunks that the file left uniform
+        mTypes.compact();
+    }
+
+    private void readJsonCompactRows(JsonReader reader) throws IOException {
+        checkDimensionsRead();
+
+        byte floor = TileType.Floor.toOrdinal();
+        int y = 0;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (y >= mHeight) throw new IllegalArgumentException("Compact room has more rows than its height!");
+
+            String row = reader.nextString();
+            int x = 0;
+            int count = 0;
+
+            for (int i = 0; i < row.length(); i++) {
+                char c = row.charAt(i);
+
+                if (c >= '0' && c <= '9') {
+                    count = count * 10 + (c - '0');
+                    if (count > mWidth) throw new IllegalArgumentException("Run too long in compact row " + y);
+                } else if (c != CompactRoomFormat.RUN_SEPARATOR) {
+                    TileType type = TileType.fromSymbol(c);
+                    if (type == null) {
+                        throw new IllegalArgumentException(String.format("Unknown tile symbol '%c' in compact row %d", c, y));
+                    }
+
+                    int length = count == 0 ? 1 : count;
+                    if (x + length > mWidth) throw new IllegalArgumentException("Compact row " + y + " is too long!");
+
+                    // The plane starts out as Floor, so Floor never needs writing
+                    if (type.toOrdinal() != floor) {
+                        for (int end = x + length; x < end; x++) {
+                            mTypes.set(x + y * mWidth, type.toOrdinal());
+                        }
+                    } else {
+                        x += length;
+                    }
+
+                    count = 0;
+                }
+            }
+
+            if (x != mWidth) throw new IllegalArgumentException("Compact row " + y + " doesn't cover the width!");
+            y++;
+        }
+        reader.endArray();
+
+        if (y != mHeight) throw new IllegalArgumentException("Compact room has fewer rows than its height!");
+    }
+
+    private RoomTemplate.Dimensions readJsonDimensions(JsonReader reader) throws IOException {
+        RoomTemplate.Dimensions dimensions = new RoomTemplate.Dimensions();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "width":
+                    dimensions.width = reader.nextInt();
+                    break;
+                case "height":
+                    dimensions.height = reader.nextInt();
+                    break;
+                case "tileSize":
+                    dimensions.tileSize = reader.nextInt();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return dimensions;
+    }
+
+    /**
+     * Reads an array of {"index": n} objects, setting each tile to the given type.
+     */
+    private void readJsonIndices(JsonReader reader, TileType type, boolean interiorOnly) throws IOException {
+        checkDimensionsRead();
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            int index = checkIndex(readJsonIndex(reader));
+            if (interiorOnly) checkCreatingNonBorderTile(index);
+
+            setTileType(index, type);
+        }
+        reader.endArray();
+    }
+
+    private int readJsonIndex(JsonReader reader) throws IOException {
+        int index = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("index")) {
+                index = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return index;
+    }
+
+    private void readJsonNests(JsonReader reader) throws IOException {
+        checkDimensionsRead();
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            RoomTemplate.EnemyNest nest = new RoomTemplate.EnemyNest();
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "index":
+                        nest.index = reader.nextInt();
+                        break;
+                    case "spawnRadius":
+                        nest.spawnRadius = reader.nextInt();
+                        break;
+                    case "spawnChance":
+                        nest.spawnChance = (float) reader.nextDouble();
+                        break;
+                    case "spawnAttemptsMin":
+                        nest.spawnAttemptsMin = reader.nextInt();
+                        break;
+                    case "spawnAttemptsMax":
+                        nest.spawnAttemptsMax = reader.nextInt();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            checkCreatingNonBorderTile(checkIndex(nest.index));
+            createEnemyNest(nest);
+        }
+        reader.endArray();
+    }
+
+    private void readJsonPOIs(JsonReader reader) throws IOException {
+        checkDimensionsRead();
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            RoomTemplate.POI poi = new RoomTemplate.POI();
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "index":
+                        poi.index = reader.nextInt();
+                        break;
+                    case "type":
+                        poi.type = readJsonString(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            checkCreatingNonBorderTile(checkIndex(poi.index));
+            createPOI(poi);
+        }
+        reader.endArray();
+    }
+
+    private void readJsonDoors(JsonReader reader) throws IOException {
+        checkDimensionsRead();
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            RoomTemplate.Door door = new RoomTemplate.Door();
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "index":
+                        door.index = reader.nextInt();
+                        break;
+                    case "direction":
+                        door.direction = readJsonString(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            checkIndex(door.index);
+            createDoor(door);
+        }
+        reader.endArray();
+    }
+
+    private static String readJsonString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    private void checkDimensionsRead() {
+        if (mTypes == null) {
+            throw new IllegalArgumentException("Room file has no dimensions before its tiles!");
+        }
+    }
+
+    /**
+     * Maps the file and decodes it straight into the tile plane, without building a RoomTemplate first.
+     */
+    private void deserializeBinary(File loadFile, IOProgress progress) {
+        try (FileChannel channel = FileChannel.open(loadFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int fileSize = in.capacity();
+
+            // Header
+            if (in.getInt() != BinaryRoomFormat.MAGIC) {
+                throw new IllegalArgumentException("Not a binary room file: " + loadFile.getName());
+            }
+            byte version = in.get();
+            if (version > BinaryRoomFormat.VERSION) {
+                throw new IllegalArgumentException("Unsupported binary room version " + version);
+            }
+            byte encoding = in.get();
+
+            RoomTemplate.Dimensions dimensions = new RoomTemplate.Dimensions();
+            dimensions.width = in.getInt();
+            dimensions.height = in.getInt();
+            dimensions.tileSize = in.getInt();
+            setRoomTemplateDimensions(dimensions);
+
+            // Recomputed once the room is read, since it may hash differently in this version
+            if (version >= BinaryRoomFormat.CONTENT_HASH_VERSION) in.getLong();
+
+            // Type plane; the plane starts out as Floor, so Floor never needs writing
+            int size = mTypes.size();
+            byte floor = TileType.Floor.toOrdinal();
+
+            if (encoding == BinaryRoomFormat.ENCODING_RUNS) {
+                int runs = in.getInt();
+                int index = 0;
+
+                for (int run = 0; run < runs; run++) {
+                    if ((run & BINARY_PROGRESS_MASK) == 0) progress.update(in.position(), fileSize);
+
+                    byte type = readBinaryTileType(in.get());
+                    int length = BinaryRoomFormat.readVarInt(in);
+                    if (length < 0 || length > size - index) {
+                        throw new IllegalArgumentException("Binary room runs overflow the grid!");
+                    }
+
+                    if (type != floor) {
+                        for (int end = index + length; index < end; index++) {
+                            mTypes.set(index, type);
+                        }
+                    } else {
+                        index += length;
+                    }
+                }
+
+                if (index != size) {
+                    throw new IllegalArgumentException("Binary room runs don't cover the grid!");
+                }
+            } else if (encoding == BinaryRoomFormat.ENCODING_NIBBLES) {
+                for (int index = 0; index < size; index += 2) {
+                    if ((index & BINARY_PROGRESS_MASK) == 0) progress.update(in.position(), fileSize);
+
+                    int packed = in.get() & 0xFF;
+
+                    byte high = readBinaryTileType(packed >>> 4);
+                    if (high != floor) mTypes.set(index, high);
+
+                    if (index + 1 < size) {
+                        byte low = readBinaryTileType(packed & 0x0F);
+                        if (low != floor) mTypes.set(index + 1, low);
+                    }
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown binary room plane encoding " + encoding);
+            }
+
+            // Metadata
+            int nestCount = in.getInt();
+            for (int i = 0; i < nestCount; i++) {
+                RoomTemplate.EnemyNest nest = new RoomTemplate.EnemyNest();
+                nest.index = readBinaryIndex(in);
+                nest.spawnRadius = in.getInt();
+                nest.spawnChance = in.getFloat();
+                nest.spawnAttemptsMin = in.getInt();
+                nest.spawnAttemptsMax = in.getInt();
+
+                checkCreatingNonBorderTile(nest.index);
+                createEnemyNest(nest);
+            }
+
+            int doorCount = in.getInt();
+            for (int i = 0; i < doorCount; i++) {
+                RoomTemplate.Door door = new RoomTemplate.Door();
+                door.index = readBinaryIndex(in);
+                door.direction = BinaryRoomFormat.readString(in);
+
+                createDoor(door);
+            }
+
+            int poiCount = in.getInt();
+            for (int i = 0; i < poiCount; i++) {
+                RoomTemplate.POI poi = new RoomTemplate.POI();
+                poi.index = readBinaryIndex(in);
+                poi.type = BinaryRoomFormat.readString(in);
+
+                checkCreatingNonBorderTile(poi.index);
+                createPOI(poi);
+            }
+
+            int portal = in.getInt();
+            if (portal != BinaryRoomFormat.NO_PORTAL) {
+                setTileType(checkIndex(portal), TileType.Portal);
+            }
+
+            progress.update(fileSize, fileSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Binary room file is truncated: " + loadFile.getName());
+        }
+
+        // Release chunks that the file left uniform
+        mTypes.compact();
+    }
+
+    private static byte readBinaryTileType(int ordinal) {
+        if (!TileType.isValidOrdinal(ordinal)) {
+            throw new IllegalArgumentException("Invalid tile type ordinal " + ordinal + " in binary room!");
+        }
+        return (byte) ordinal;
+    }
+
+    private int readBinaryIndex(MappedByteBuffer in) {
+        return checkIndex(in.getInt());
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= mTypes.size()) {
+            throw new IllegalArgumentException("Tile index out of range: " + index);
+        }
+        return index;
     }
 
     private void fillGridFromTemplate(RoomTemplate template) {
@@ -508,8 +1955,11 @@ public class TileGrid {
         }
 
         if (template.portal != null) {
-            mTiles[template.portal.index].setTileType(TileType.Portal);
+            setTileType(template.portal.index, TileType.Portal);
         }
+
+        // Release chunks that the template left uniform
+        mTypes.compact();
     }
 
     private void setRoomTemplateDimensions(RoomTemplate.Dimensions dimensions) {
@@ -517,35 +1967,50 @@ public class TileGrid {
         mHeight = dimensions.height;
         // !TODO deal with size
 
-        mTiles = new Tile[mWidth * mHeight];
-        for (int i = 0; i < mWidth * mHeight; i++) {
-            mTiles[i] = new Tile(i, TileType.Floor);
-        }
+        mTypes = createPlane(mWidth, mHeight);
+        mTypes.fill(TileType.Floor.toOrdinal());
+
+        mNests.clear();
+        mPOIs.clear();
+        mDoors.clear();
+
+        mValidator.invalidateAll();
+        mReachability.invalidateAll();
+        markAllDirty();
     }
 
     private void createWall(RoomTemplate.Wall wall) {
-        mTiles[wall.index].setTileType(TileType.Wall);
+        setTileType(wall.index, TileType.Wall);
     }
 
     private void createEnemyNest(RoomTemplate.EnemyNest nest) {
-        mTiles[nest.index].createNest(nest);
+        setTileType(nest.index, TileType.Nest);
+        mNests.put(nest.index, new Tile.Nest(nest));
     }
 
     private void createTreasure(RoomTemplate.Treasure treasure) {
-        mTiles[treasure.index].setTileType(TileType.Treasure);
+        setTileType(treasure.index, TileType.Treasure);
     }
 
     private void createPOI(RoomTemplate.POI poi) {
-        mTiles[poi.index].setTileType(TileType.POI);
+        setTileType(poi.index, TileType.POI);
+        if (poi.type != null) {
+            getPOI(poi.index).type = poi.type;
+        }
     }
 
     private void createNone(RoomTemplate.None none) {
-        mTiles[none.index].setTileType(TileType.None);
+        setTileType(none.index, TileType.None);
     }
 
-    private void createDoor(RoomTemplate.Door door) { mTiles[door.index].createDoor(door); }
+    private void createDoor(RoomTemplate.Door door) {
+        setTileType(door.index, TileType.Door);
+        if (door.direction != null) {
+            getDoor(door.index).direction = door.direction;
+        }
+    }
 
-    private void createLava(RoomTemplate.Lava lava) { mTiles[lava.index].setTileType(TileType.Lava); }
+    private void createLava(RoomTemplate.Lava lava) { setTileType(lava.index, TileType.Lava); }
 
     private void checkCreatingNonBorderTile(int index) {
         if (isIndexOnBorder(index)) {
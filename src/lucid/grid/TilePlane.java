@@ -0,0 +1,73 @@
+package lucid.grid;
+
+/**
+ * Backing storage for the tile type ordinals of a {@link TileGrid}, addressed by tile index.
+ */
+interface TilePlane {
+
+    int size();
+
+    byte get(int index);
+
+    void set(int index, byte type);
+
+    /**
+     * Returns the first index at or after from holding the given type, or -1 if there is none.
+     */
+    default int indexOf(byte type, int from) {
+        for (int index = from; index < size(); index++) {
+            if (get(index) == type) return index;
+        }
+        return -1;
+    }
+
+    /**
+     * Sets the tiles from index from (inclusive) to index to (exclusive) to the given type. The range must lie within
+     * one row.
+     */
+    default void fillRow(int from, int to, byte type) {
+        for (int index = from; index < to; index++) {
+            set(index, type);
+        }
+    }
+
+    /**
+     * Writes palette[type] of each tile from index from (inclusive) to index to (exclusive) into dest, starting at
+     * offset. The range must lie within one row.
+     */
+    default void mapRow(int from, int to, int[] palette, int[] dest, int offset) {
+        for (int index = from; index < to; index++) {
+            dest[offset++] = palette[get(index)];
+        }
+    }
+
+    /**
+     * Copies the type ordinals of the tiles from index from (inclusive) to index to (exclusive) into dest, starting at
+     * offset. The range must lie within one row.
+     */
+    default void copyRow(int from, int to, byte[] dest, int offset) {
+        for (int index = from; index < to; index++) {
+            dest[offset++] = get(index);
+        }
+    }
+
+    /**
+     * Sets every tile to the given type.
+     */
+    void fill(byte type);
+
+    /**
+     * Returns an independent plane holding the same tiles.
+     */
+    TilePlane copy();
+
+    /**
+     * Approximate heap memory held by the plane, in bytes.
+     */
+    long getMemoryBytes();
+
+    /**
+     * Gives the backend a chance to release storage that is no longer needed. Purely an optimization.
+     */
+    default void compact() {}
+}
@@ -5,28 +5,72 @@ import java.awt.*;
 public enum TileType {
     None, Floor, Wall, Nest, Treasure, POI, Door, Portal, Lava;
 
+    private static final TileType[] VALUES = values();
+
+    private static final String SYMBOLS = "XFWNTPDOL";
+
+    // Indexed by ordinal
+    private static final Color[] COLORS = {
+            Color.white, Color.gray, Color.black, Color.red, Color.yellow, Color.green, Color.blue, Color.pink,
+            Color.orange
+    };
+
+    /**
+     * Returns the type stored under the given packed ordinal, without the array copy that values() makes.
+     */
+    public static TileType fromOrdinal(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    public static boolean isValidOrdinal(int ordinal) {
+        return ordinal >= 0 && ordinal < VALUES.length;
+    }
+
+    public byte toOrdinal() {
+        return (byte) ordinal();
+    }
+
+    /**
+     * Single-character name used by the compact room format.
+     */
+    public char getSymbol() {
+        return SYMBOLS.charAt(ordinal());
+    }
+
+    /**
+     * Returns the type with the given symbol, or null if there is none.
+     */
+    public static TileType fromSymbol(char symbol) {
+        int ordinal = SYMBOLS.indexOf(symbol);
+        return ordinal >= 0 ? VALUES[ordinal] : null;
+    }
+
     public Color getColor() {
-        switch (this) {
-            case None:
-                return Color.white;
-            case Floor:
-                return Color.gray;
-            case Wall:
-                return Color.black;
-            case Nest:
-                return Color.red;
-            case Treasure:
-                return Color.yellow;
-            case POI:
-                return Color.green;
-            case Door:
-                return Color.blue;
-            case Portal:
-                return Color.pink;
-            case Lava:
-                return Color.orange;
-            default:
-                throw new IllegalArgumentException("Bad TileType in getColor()!");
+        return COLORS[ordinal()];
+    }
+
+    /**
+     * Returns a new table of the packed RGB color of every type, indexed by ordinal, for mapping tile planes to
+     * pixels without going through the enum.
+     */
+    public static int[] createRGBPalette() {
+        int[] palette = new int[COLORS.length];
+        for (int ordinal = 0; ordinal < palette.length; ordinal++) {
+            palette[ordinal] = COLORS[ordinal].getRGB();
+        }
+        return palette;
+    }
+
+    /**
+     * Returns a new table, indexed by ordinal, of whether text over each type's color reads better in white than in
+     * black, going by the color's luminance.
+     */
+    public static boolean[] createWhiteTextTable() {
+        boolean[] white = new boolean[COLORS.length];
+        for (int ordinal = 0; ordinal < white.length; ordinal++) {
+            Color color = COLORS[ordinal];
+            white[ordinal] = 299 * color.getRed() + 587 * color.getGreen() + 114 * color.getBlue() < 128 * 1000;
         }
+        return white;
     }
 }
@@ -0,0 +1,87 @@
+package lucid.serialization;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Layout of the {@link SerializationFormat#BINARY} room format. All numbers are big-endian.
+ *
+ * <pre>
+ * header    magic "LUCR", version (byte), plane encoding (byte), width, height, tileSize (ints),
+ *           content hash (long, from version 2 on)
+ * plane     ENCODING_NIBBLES: one type ordinal per nibble, high nibble first, ceil(width * height / 2) bytes
+ *           ENCODING_RUNS:    run count (int), then per run the type ordinal (byte) and length (varint)
+ * metadata  nest count (int), then index, spawnRadius (ints), spawnChance (float), attempts min, max (ints)
+ *           door count (int), then index (int) and direction (string)
+ *           POI count (int), then index (int) and type (string)
+ *           portal index (int), -1 if there is none
+ * </pre>
+ *
+ * Strings are a varint byte length followed by UTF-8.
+ */
+public final class BinaryRoomFormat {
+
+    public static final int MAGIC = 0x4C554352; // "LUCR"
+    public static final byte VERSION = 2;
+
+    /**
+     * First version whose header holds the content hash.
+     */
+    public static final byte CONTENT_HASH_VERSION = 2;
+
+    public static final byte ENCODING_NIBBLES = 0;
+    public static final byte ENCODING_RUNS = 1;
+
+    public static final int NO_PORTAL = -1;
+
+    private BinaryRoomFormat() {}
+
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+
+        do {
+            if (shift > 28) throw new IllegalArgumentException("Malformed varint in binary room!");
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+
+    /**
+     * Number of bytes writeVarInt() produces for the value.
+     */
+    public static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    public static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,37 @@
+package lucid.serialization;
+
+/**
+ * Layout of the {@link SerializationFormat#JSON_COMPACT} room format, a human-diffable JSON that stores the tile
+ * types as one run-length-encoded string per row instead of one object per tile.
+ *
+ * <pre>
+ * {
+ *   "version": 1,
+ *   "dimensions": { "width": 8, "height": 3, "tileSize": 4 },
+ *   "contentHash": "5c1f0e0a9b3d7e21",
+ *   "rows": [
+ *     "8W",
+ *     "W 2F N 3F W",
+ *     "8W"
+ *   ],
+ *   "enemyNests": [ ... ],
+ *   "pois": [ ... ],
+ *   "doors": [ ... ]
+ * }
+ * </pre>
+ *
+ * A row is a space-separated list of runs, each an optional count followed by a tile type symbol. Only nests, POIs
+ * and doors carry metadata, in the same objects as the RoomTemplate schema. The version field is written first and
+ * is what tells the loader it is looking at this format.
+ */
+public final class CompactRoomFormat {
+
+    public static final String VERSION_FIELD = "version";
+    public static final int VERSION = 1;
+
+    public static final String ROWS_FIELD = "rows";
+
+    public static final char RUN_SEPARATOR = ' ';
+
+    private CompactRoomFormat() {}
+}
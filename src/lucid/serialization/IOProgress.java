@@ -0,0 +1,18 @@
+package lucid.serialization;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Hears how far a room load or save has got, and can stop it.
+ */
+@FunctionalInterface
+public interface IOProgress {
+
+    IOProgress NONE = (done, total) -> {};
+
+    /**
+     * Called every so often with the bytes read or written so far, out of total, or -1 when the total isn't known
+     * up front (e.g. while saving). May throw {@link CancellationException} to abort the operation.
+     */
+    void update(long done, long total) throws CancellationException;
+}
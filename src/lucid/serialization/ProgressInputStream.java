@@ -0,0 +1,53 @@
+package lucid.serialization;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read through it and reports them to an {@link IOProgress} about every {@value #REPORT_INTERVAL}
+ * bytes.
+ */
+public class ProgressInputStream extends FilterInputStream {
+
+    private static final int REPORT_INTERVAL = 1 << 16;
+
+    private final IOProgress mProgress;
+    private final long mTotal;
+    private long mDone, mNextReport;
+
+    public ProgressInputStream(InputStream in, long total, IOProgress progress) {
+        super(in);
+        mTotal = total;
+        mProgress = progress;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int value = super.read();
+        if (value >= 0) advance(1);
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = super.read(buffer, offset, length);
+        if (read > 0) advance(read);
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        long skipped = super.skip(count);
+        advance(skipped);
+        return skipped;
+    }
+
+    private void advance(long count) {
+        mDone += count;
+        if (mDone >= mNextReport) {
+            mNextReport = mDone + REPORT_INTERVAL;
+            mProgress.update(mDone, mTotal);
+        }
+    }
+}
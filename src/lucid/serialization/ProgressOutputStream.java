@@ -0,0 +1,43 @@
+package lucid.serialization;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written through it and reports them to an {@link IOProgress} about every
+ * {@value #REPORT_INTERVAL} bytes. The total is never known while writing, so it is reported as -1.
+ */
+public class ProgressOutputStream extends FilterOutputStream {
+
+    private static final int REPORT_INTERVAL = 1 << 16;
+
+    private final IOProgress mProgress;
+    private long mDone, mNextReport;
+
+    public ProgressOutputStream(OutputStream out, IOProgress progress) {
+        super(out);
+        mProgress = progress;
+    }
+
+    @Override
+    public void write(int value) throws IOException {
+        out.write(value);
+        advance(1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        // FilterOutputStream would write these one byte at a time
+        out.write(buffer, offset, length);
+        advance(length);
+    }
+
+    private void advance(long count) {
+        mDone += count;
+        if (mDone >= mNextReport) {
+            mNextReport = mDone + REPORT_INTERVAL;
+            mProgress.update(mDone, -1);
+        }
+    }
+}
@@ -3,6 +3,8 @@ package lucid.serialization;
 public class RoomTemplate {
 
     public Dimensions dimensions;
+    // TileGrid.getContentHash() of the room as saved, as 16 hex digits; absent from older files
+    public String contentHash;
     public Wall[] walls;
     public None[] nones;
     public EnemyNest[] enemyNests;
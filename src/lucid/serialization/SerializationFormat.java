@@ -1,5 +1,90 @@
 package lucid.serialization;
 
+import com.google.gson.stream.JsonReader;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
 public enum SerializationFormat {
-    JSON
+    JSON("json"),
+    BINARY("room"),
+    JSON_COMPACT("json");
+
+    /**
+     * Name of the JSON field holding the room's content hash. Written right after the dimensions.
+     */
+    public static final String CONTENT_HASH_FIELD = "contentHash";
+
+    private final String mExtension;
+
+    SerializationFormat(String extension) {
+        mExtension = extension;
+    }
+
+    /**
+     * File extension, without the dot.
+     */
+    public String getExtension() {
+        return mExtension;
+    }
+
+    /**
+     * Picks the format from a file name's extension, falling back to JSON.
+     */
+    public static SerializationFormat fromFileName(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        String extension = dot >= 0 ? fileName.substring(dot + 1) : "";
+
+        for (SerializationFormat format : values()) {
+            if (format.mExtension.equalsIgnoreCase(extension)) {
+                return format;
+            }
+        }
+
+        return JSON;
+    }
+
+    /**
+     * Works out a room file's format from its contents: binary files start with the magic number, and compact JSON
+     * has a version field where the RoomTemplate schema has its per-tile arrays.
+     */
+    public static SerializationFormat detect(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() == BinaryRoomFormat.MAGIC) {
+                return BINARY;
+            }
+        } catch (EOFException e) {
+            // Too short to be binary
+        }
+
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))) {
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case CompactRoomFormat.VERSION_FIELD:
+                    case CompactRoomFormat.ROWS_FIELD:
+                        return JSON_COMPACT;
+                    case "walls":
+                    case "nones":
+                        return JSON;
+                    default:
+                        reader.skipValue();
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            // Not valid JSON; let the JSON loader report the details
+        }
+
+        return JSON;
+    }
+
+    public static String formatContentHash(long hash) {
+        return String.format("%016x", hash);
+    }
 }